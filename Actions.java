@@ -0,0 +1,147 @@
+import bc.*;
+
+/*
+ * All the actions our units take go through here
+ * Each one is passed on to the game controller and then its known effect is written into our own caches
+ * (UnitCache and Karbonite) so we don't have to ask the engine for the new state of every unit involved.
+ * Only actions whose result we can't predict (a new unit appearing, which unit comes out of a garrison) look at the engine again.
+ */
+public class Actions {
+	private GameController gc;
+	private MapCache map;
+	private UnitCache units;
+	private Karbonite karbonite;
+	private int[] splashed = new int[9]; //Slots of the units hit by a mage
+
+	public Actions(GameController g, MapCache mc, UnitCache uc, Karbonite k) {
+		gc = g;
+		map = mc;
+		units = uc;
+		karbonite = k;
+	}
+
+	public void moveRobot(int id, Direction d) {
+		gc.moveRobot(id, d);
+		int slot = units.slotOf(id);
+		units.moved(id, units.x(slot) + Loc.DX[d.ordinal()], units.y(slot) + Loc.DY[d.ordinal()]);
+	}
+
+	/*
+	 * Knights take less damage from each hit, mages hit everything next to their target as well
+	 */
+	public void attack(int id, int target) {
+		gc.attack(id, target);
+		int slot = units.slotOf(id);
+		int hit = units.slotOf(target);
+		units.attacked(id);
+
+		if (units.type(slot) == UnitType.Mage) {
+			int found = units.within(units.x(hit), units.y(hit), 2, null, null, splashed);
+			for (int i=0; i<found; i++)
+				damage(splashed[i], units.damage(slot));
+		} else
+			damage(hit, units.damage(slot));
+	}
+
+	public void javelin(int id, int target) {
+		gc.javelin(id, target);
+		units.changed(id); //Ability heat
+		damage(units.slotOf(target), units.damage(units.slotOf(id)));
+	}
+
+	private void damage(int slot, int amount) {
+		units.changeHealth(units.id(slot), -Math.max(0, amount - units.defense(slot)));
+	}
+
+	public void heal(int id, int target) {
+		gc.heal(id, target);
+		units.attacked(id);
+		units.changeHealth(target, Math.abs(units.damage(units.slotOf(id))));
+	}
+
+	public void overcharge(int id, int target) {
+		gc.overcharge(id, target);
+		units.changed(id); //Ability heat
+		units.overcharged(target);
+	}
+
+	public void build(int id, int blueprint) {
+		gc.build(id, blueprint);
+		units.acted(id);
+		units.changeHealth(blueprint, units.buildHealth(units.slotOf(id)));
+	}
+
+	public void repair(int id, int structure) {
+		gc.repair(id, structure);
+		units.acted(id);
+		units.changeHealth(structure, units.repairHealth(units.slotOf(id)));
+	}
+
+	public void harvest(int id, Direction d) {
+		gc.harvest(id, d);
+		int slot = units.slotOf(id);
+		units.acted(id);
+		karbonite.harvest(units.x(slot) + Loc.DX[d.ordinal()], units.y(slot) + Loc.DY[d.ordinal()], units.harvestAmount(slot));
+	}
+
+	/*
+	 * A new unit appears - we only learn its id by looking
+	 */
+	public Unit blueprint(int id, UnitType type, Direction d) {
+		gc.blueprint(id, type, d);
+		units.acted(id);
+		return sense(id, d);
+	}
+
+	public Unit replicate(int id, Direction d) {
+		gc.replicate(id, d);
+		units.changed(id); //Ability heat
+		return sense(id, d);
+	}
+
+	private Unit sense(int id, Direction d) {
+		int slot = units.slotOf(id);
+		return units.updateUnit(map.loc(units.x(slot) + Loc.DX[d.ordinal()], units.y(slot) + Loc.DY[d.ordinal()]));
+	}
+
+	public void load(int structure, int robot) {
+		gc.load(structure, robot);
+		units.garrisoned(robot);
+		units.changed(structure);
+	}
+
+	/*
+	 * The garrison decides who comes out so we look to see who it was
+	 */
+	public Unit unload(int structure, Direction d) {
+		gc.unload(structure, d);
+		units.changed(structure);
+		return sense(structure, d);
+	}
+
+	public void produceRobot(int factory, UnitType type) {
+		gc.produceRobot(factory, type);
+		units.changed(factory);
+	}
+
+	public void blink(int id, MapLocation dest) {
+		gc.blink(id, dest);
+		units.relocated(id, dest.getX(), dest.getY());
+		units.changed(id); //Ability heat
+	}
+
+	public void beginSnipe(int id, MapLocation target) {
+		gc.beginSnipe(id, target);
+		units.changed(id);
+	}
+
+	public void launchRocket(int id, MapLocation dest) {
+		gc.launchRocket(id, dest);
+		units.destroyed(id); //Gone from the map
+	}
+
+	public void disintegrateUnit(int id) {
+		gc.disintegrateUnit(id);
+		units.destroyed(id);
+	}
+}
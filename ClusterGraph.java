@@ -0,0 +1,461 @@
+import java.util.Arrays;
+
+import bc.*;
+
+/*
+ * A coarse view of the map for ripples on big maps (HPA* style)
+ *
+ * The map is cut into square clusters. Where passable tiles meet across a cluster border we take the middle of each run
+ * as an entrance - a node in a small graph. Nodes in the same cluster are joined by their walking distance inside the cluster
+ * (and we keep each node's distance to every tile in its cluster), nodes either side of a border are joined with cost 1.
+ *
+ * A ripple then does an exact breadth first search out to nearRadius from its sources. Beyond that the distance to the
+ * entrances is found with Dijkstra on the node graph, and the distance to a tile is the best entrance of its cluster plus the
+ * walk inside the cluster. We only work out those far tiles in clusters near the units the ripple is for and near our factories
+ * and rockets (units leave them through the same gravity map) - they are the only tiles the gravity map is read at. The far distances can be a little long (paths are made to pass through entrance middles).
+ *
+ * The cluster size and nearRadius trade accuracy for speed - a nearRadius that covers the zone gives exactly the ripple result
+ */
+public class ClusterGraph {
+	private static final int INFINITY = Integer.MAX_VALUE / 2;
+	private static final int MARGIN = 2; //How far around a unit its gravity map might be read (moves and blinks, or an unload then a move)
+
+	private MapCache map;
+	private UnitCache units;
+	private Team team; //Whose units stop the ripples and are scored for
+	private int size; //Width and height of a cluster
+	private int nearRadius; //Exact search out to this distance from the sources
+	private int across, down; //Clusters in x and y
+
+	/*
+	 * The node graph - edges are stored in compressed form like the MapCache neighbours
+	 */
+	private int nodes;
+	private int[] nodeTile; //Indexed by node
+	private int[] nodeOf; //Indexed by tile - its node or -1
+	private short[][] local; //Indexed by node then local tile (see localIndex) - distance within the cluster or -1
+	private int[][] clusterNodes; //Indexed by cluster - the nodes in it
+	private int[] edgeStart;
+	private int[] edgeTo;
+	private int[] edgeCost;
+
+	/*
+	 * Search state reused by each ripple
+	 */
+	private TileSet pending; //Sources added for the next ripple
+	private StampedIntArray distance; //Indexed by tile - 1 + distance from the sources, 0 if not known
+	private int[] order; //Tiles with a distance - the exact search in distance order then the far tiles
+	private int filled; //Entries of order used
+	private int[] layerEnd; //Indexed by layer - end of the exact layer in order
+	private int[] hist; //Indexed by distance - our matching units that far away
+	private int[] nodeDistance; //Indexed by node
+	private long[] heap; //Dijkstra queue - distance in the high half, node in the low
+	private int[] clusterStamp; //Indexed by cluster - equal to rippleCount if the cluster is worked out this ripple
+	private int rippleCount = 0;
+
+	public ClusterGraph(MapCache mc, UnitCache uc, Team myTeam, int clusterSize, int radius) {
+		map = mc;
+		units = uc;
+		team = myTeam;
+		size = clusterSize;
+		nearRadius = Math.max(1, radius);
+		int w = mc.width(), h = mc.height(), tiles = mc.tiles();
+		across = (w + size - 1) / size;
+		down = (h + size - 1) / size;
+
+		pending = new TileSet(w, h);
+		distance = new StampedIntArray(tiles);
+		order = new int[tiles];
+		layerEnd = new int[tiles+1];
+		hist = new int[tiles+1];
+		clusterStamp = new int[across*down];
+
+		/*
+		 * Find the entrances - first the borders between clusters side by side then the ones above each other
+		 */
+		nodeOf = new int[tiles];
+		Arrays.fill(nodeOf, -1);
+		IntList tilesOfNodes = new IntList();
+		IntList links = new IntList(); //Pairs of nodes either side of a border
+		for (int cx=0; cx<across-1; cx++) {
+			int x = (cx+1)*size - 1;
+			for (int cy=0; cy<down; cy++)
+				entrances(x, cy*size, Math.min(h, (cy+1)*size), true, tilesOfNodes, links);
+		}
+		for (int cy=0; cy<down-1; cy++) {
+			int y = (cy+1)*size - 1;
+			for (int cx=0; cx<across; cx++)
+				entrances(y, cx*size, Math.min(w, (cx+1)*size), false, tilesOfNodes, links);
+		}
+		nodes = tilesOfNodes.size();
+		nodeTile = new int[nodes];
+		for (int n=0; n<nodes; n++)
+			nodeTile[n] = tilesOfNodes.get(n);
+
+		/*
+		 * Search each cluster from each of its nodes
+		 */
+		IntList[] inCluster = new IntList[across*down];
+		for (int c=0; c<inCluster.length; c++)
+			inCluster[c] = new IntList();
+		for (int n=0; n<nodes; n++)
+			inCluster[cluster(nodeTile[n])].add(n);
+		clusterNodes = new int[across*down][];
+		for (int c=0; c<inCluster.length; c++) {
+			clusterNodes[c] = new int[inCluster[c].size()];
+			for (int i=0; i<inCluster[c].size(); i++)
+				clusterNodes[c][i] = inCluster[c].get(i);
+		}
+
+		local = new short[nodes][];
+		int[] queue = new int[size*size];
+		for (int n=0; n<nodes; n++)
+			local[n] = searchCluster(nodeTile[n], queue);
+
+		/*
+		 * Build the edges - inside each cluster and then across the borders
+		 */
+		int[] degree = new int[nodes+1];
+		for (int n=0; n<nodes; n++) {
+			for (int m: clusterNodes[cluster(nodeTile[n])]) {
+				if (m != n && local[n][localIndex(nodeTile[m])] >= 0)
+					degree[n]++;
+			}
+		}
+		for (int i=0; i<links.size(); i++)
+			degree[links.get(i)]++;
+		edgeStart = new int[nodes+1];
+		for (int n=0; n<nodes; n++)
+			edgeStart[n+1] = edgeStart[n] + degree[n];
+		edgeTo = new int[edgeStart[nodes]];
+		edgeCost = new int[edgeStart[nodes]];
+		int[] fill = Arrays.copyOf(edgeStart, nodes);
+		for (int n=0; n<nodes; n++) {
+			for (int m: clusterNodes[cluster(nodeTile[n])]) {
+				int cost = local[n][localIndex(nodeTile[m])];
+				if (m != n && cost >= 0) {
+					edgeTo[fill[n]] = m;
+					edgeCost[fill[n]++] = cost;
+				}
+			}
+		}
+		for (int i=0; i<links.size(); i+=2) {
+			int a = links.get(i), b = links.get(i+1);
+			edgeTo[fill[a]] = b;
+			edgeCost[fill[a]++] = 1;
+			edgeTo[fill[b]] = a;
+			edgeCost[fill[b]++] = 1;
+		}
+
+		nodeDistance = new int[nodes];
+		heap = new long[edgeStart[nodes] + nodes + 1];
+	}
+
+	/*
+	 * Scan one cluster border for runs of tiles that can step across it and add an entrance for each
+	 * line is the last column (or row) before the border and the run goes from start to end along it
+	 */
+	private void entrances(int line, int start, int end, boolean vertical, IntList tilesOfNodes, IntList links) {
+		int runStart = -1;
+		for (int i=start; i<=end; i++) {
+			boolean open = (i < end && crossing(line, i, vertical) >= 0);
+			if (open && runStart < 0)
+				runStart = i;
+			else if (!open && runStart >= 0) {
+				int middle = (runStart + i - 1) / 2;
+				int near = vertical?map.tile(line, middle):map.tile(middle, line);
+				links.add(node(near, tilesOfNodes));
+				links.add(node(crossing(line, middle, vertical), tilesOfNodes));
+				runStart = -1;
+			}
+		}
+	}
+
+	/*
+	 * The tile over the border we can step to from line,i (straight across if we can) or -1 if there isn't one
+	 */
+	private int crossing(int line, int i, boolean vertical) {
+		int x = vertical?line:i, y = vertical?i:line;
+		if (!map.passable(x, y))
+			return -1;
+		for (int step=0; step<3; step++) {
+			int j = i + ((step == 0)?0:(step == 1)?-1:1);
+			int nx = vertical?line+1:j, ny = vertical?j:line+1;
+			if (map.onMap(nx, ny) && map.passable(nx, ny))
+				return map.tile(nx, ny);
+		}
+		return -1;
+	}
+
+	private int node(int tile, IntList tilesOfNodes) {
+		if (nodeOf[tile] < 0) {
+			nodeOf[tile] = tilesOfNodes.size();
+			tilesOfNodes.add(tile);
+		}
+		return nodeOf[tile];
+	}
+
+	private int cluster(int tile) {
+		return (map.x(tile) / size)*down + map.y(tile) / size;
+	}
+
+	private int localIndex(int tile) {
+		return (map.x(tile) % size)*size + map.y(tile) % size;
+	}
+
+	/*
+	 * Breadth first search from a tile without leaving its cluster
+	 */
+	private short[] searchCluster(int from, int[] queue) {
+		short[] result = new short[size*size];
+		Arrays.fill(result, (short)-1);
+		int c = cluster(from), head = 0, tail = 0;
+		result[localIndex(from)] = 0;
+		queue[tail++] = from;
+		while (head < tail) {
+			int t = queue[head++];
+			short next = (short)(result[localIndex(t)] + 1);
+			for (int j=map.firstPassableNeighbour(t); j<map.endPassableNeighbour(t); j++) {
+				int n = map.passableNeighbour(j);
+				if (cluster(n) == c && result[localIndex(n)] < 0) {
+					result[localIndex(n)] = next;
+					queue[tail++] = n;
+				}
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * The accuracy / speed knob - a bigger radius searches more tiles exactly
+	 */
+	public void setNearRadius(int radius) {
+		nearRadius = Math.max(1, radius);
+	}
+
+	/*
+	 * Add a starting tile for the next ripple - impassable tiles and duplicates are ignored
+	 */
+	public void addSource(int tile) {
+		if (map.passable(tile))
+			pending.set(tile);
+	}
+
+	public void addSource(MapLocation m) {
+		addSource(map.tile(m));
+	}
+
+	public void addDisk(int cx, int cy, MapCache.Disk disk) {
+		for (int i=0; i<disk.size; i++) {
+			int x = cx + disk.dx[i], y = cy + disk.dy[i];
+			if (map.onMap(x, y))
+				addSource(map.tile(x, y));
+		}
+	}
+
+	/*
+	 * Ripple out from the sources added since the last call - the arguments are the same as FusedRipple.addJob
+	 * Tiles near the sources score exactly as the ripple would, far tiles are only scored near our matching units
+	 */
+	public void ripple(GravityMap[] maps, float points, UnitType match, boolean ignoreWorkers, int max, int stop) {
+		distance.reset();
+		rippleCount++;
+
+		/*
+		 * The exact search - sources already holding a match don't spread (see FusedRipple)
+		 */
+		filled = 0;
+		for (int t = pending.nextSetBit(0); t >= 0; t = pending.nextSetBit(t+1)) {
+			distance.set(t, 1);
+			order[filled++] = t;
+		}
+		pending.clear();
+		if (filled == 0)
+			return;
+		layerEnd[0] = filled;
+		int layers = 1;
+		while (layers <= nearRadius) {
+			int from = (layers == 1)?0:layerEnd[layers-2];
+			for (int i=from; i<layerEnd[layers-1]; i++) {
+				int tile = order[i];
+				if (layers == 1 && match != null && units.isMatch(tile, team, match, ignoreWorkers))
+					continue;
+				for (int j=map.firstPassableNeighbour(tile); j<map.endPassableNeighbour(tile); j++) {
+					int n = map.passableNeighbour(j);
+					if (distance.get(n) == 0) {
+						distance.set(n, layers+1);
+						order[filled++] = n;
+					}
+				}
+			}
+			if (filled == layerEnd[layers-1])
+				break;
+			layerEnd[layers++] = filled;
+		}
+		int maxDistance = layers-1;
+
+		/*
+		 * If the search didn't finish carry on over the node graph from its last layer
+		 */
+		if (layers > nearRadius)
+			maxDistance = Math.max(maxDistance, far(layerEnd[layers-2], layerEnd[layers-1], layers-1, match, ignoreWorkers));
+
+		/*
+		 * Count our matching units at each distance to find where the ripple would have stopped
+		 */
+		Arrays.fill(hist, 0, maxDistance+1, 0);
+		for (int slot=0; slot<units.slots(); slot++) {
+			if (units.team(slot) == team && units.onMap(slot)) {
+				int tile = map.tile(units.x(slot), units.y(slot));
+				int d = distance.get(tile) - 1;
+				if (d >= 0 && units.isMatch(tile, team, match, ignoreWorkers))
+					hist[d]++;
+			}
+		}
+		int limit = maxDistance, matches = hist[0];
+		for (int d=1; d<=maxDistance; d++) {
+			matches += hist[d];
+			if (matches >= max) {
+				limit = d-1;
+				break;
+			}
+		}
+		if (stop > 0)
+			limit = Math.min(limit, stop-2);
+
+		for (int i=0; i<filled; i++) {
+			int d = distance.get(order[i]) - 1;
+			if (d <= limit) {
+				float gravity = points * GravityMap.falloff(d+1);
+				for (GravityMap target: maps)
+					target.add(order[i], gravity);
+			}
+		}
+	}
+
+	public void ripple(GravityMap map, float points, UnitType match, int max, int stop) {
+		ripple(new GravityMap[] { map }, points, match, false, max, stop);
+	}
+
+	/*
+	 * Work out the distance to the tiles beyond the exact search that we need - in clusters near our matching units and structures
+	 * The snapshot doesn't hold garrisons so every factory and rocket is included - the next unit out may be any type
+	 * order[from] to order[to-1] is the last exact layer (all at distance radius)
+	 * Returns the furthest distance found
+	 */
+	private int far(int from, int to, int radius, UnitType match, boolean ignoreWorkers) {
+		/*
+		 * Start each node at its exact distance or the best way out through the last layer in its cluster
+		 */
+		Arrays.fill(nodeDistance, INFINITY);
+		int heapSize = 0, maxDistance = 0;
+		for (int i=0; i<filled; i++) {
+			int n = nodeOf[order[i]], d = distance.get(order[i]) - 1;
+			if (n >= 0 && (d > 0 || match == null || !units.isMatch(order[i], team, match, ignoreWorkers))) //Blocked sources don't spread
+				nodeDistance[n] = d;
+		}
+		for (int i=from; i<to; i++) {
+			int tile = order[i], index = localIndex(tile);
+			for (int n: clusterNodes[cluster(tile)]) {
+				if (local[n][index] >= 0 && radius + local[n][index] < nodeDistance[n])
+					nodeDistance[n] = radius + local[n][index];
+			}
+		}
+		for (int n=0; n<nodes; n++) {
+			if (nodeDistance[n] < INFINITY)
+				heapSize = push(heapSize, nodeDistance[n], n);
+		}
+
+		while (heapSize > 0) {
+			long top = heap[0];
+			heapSize = pop(heapSize);
+			int d = (int)(top >>> 32), n = (int)top;
+			if (d > nodeDistance[n])
+				continue;
+			for (int e=edgeStart[n]; e<edgeStart[n+1]; e++) {
+				int m = edgeTo[e];
+				if (d + edgeCost[e] < nodeDistance[m]) {
+					nodeDistance[m] = d + edgeCost[e];
+					heapSize = push(heapSize, nodeDistance[m], m);
+				}
+			}
+		}
+
+		/*
+		 * Now the tiles of each cluster around a matching unit or one of our structures that the exact search didn't reach
+		 */
+		for (int slot=0; slot<units.slots(); slot++) {
+			if (units.team(slot) != team || !units.onMap(slot))
+				continue;
+			int ux = units.x(slot), uy = units.y(slot);
+			UnitType type = units.type(slot);
+			if (type == UnitType.Factory || type == UnitType.Rocket || units.isMatch(map.tile(ux, uy), team, match, ignoreWorkers))
+				maxDistance = Math.max(maxDistance, farAround(ux, uy));
+		}
+		return maxDistance;
+	}
+
+	/*
+	 * Work out the far tiles in the clusters within MARGIN of ux,uy - returns the furthest distance found
+	 */
+	private int farAround(int ux, int uy) {
+		int maxDistance = 0;
+		for (int cx=Math.max(0, ux-MARGIN)/size; cx<=Math.min(map.width()-1, ux+MARGIN)/size; cx++) {
+			for (int cy=Math.max(0, uy-MARGIN)/size; cy<=Math.min(map.height()-1, uy+MARGIN)/size; cy++) {
+				int c = cx*down + cy;
+				if (clusterStamp[c] == rippleCount)
+					continue;
+				clusterStamp[c] = rippleCount;
+				for (int x=cx*size; x<Math.min(map.width(), (cx+1)*size); x++) {
+					for (int y=cy*size; y<Math.min(map.height(), (cy+1)*size); y++) {
+						int tile = map.tile(x, y);
+						if (!map.passable(tile) || distance.get(tile) > 0)
+							continue;
+						int best = INFINITY, index = localIndex(tile);
+						for (int n: clusterNodes[c]) {
+							if (local[n][index] >= 0 && nodeDistance[n] + local[n][index] < best)
+								best = nodeDistance[n] + local[n][index];
+						}
+						if (best < INFINITY) {
+							best = Math.min(best, hist.length-2); //Keep within the falloff table
+							distance.set(tile, best+1);
+							order[filled++] = tile;
+							maxDistance = Math.max(maxDistance, best);
+						}
+					}
+				}
+			}
+		}
+		return maxDistance;
+	}
+
+	/*
+	 * A binary heap of (distance, node) pairs packed into longs so the smallest distance is on top
+	 */
+	private int push(int heapSize, int d, int n) {
+		int i = heapSize++;
+		long value = ((long)d << 32) | n;
+		while (i > 0 && heap[(i-1)/2] > value) {
+			heap[i] = heap[(i-1)/2];
+			i = (i-1)/2;
+		}
+		heap[i] = value;
+		return heapSize;
+	}
+
+	private int pop(int heapSize) {
+		long value = heap[--heapSize];
+		int i = 0;
+		while (2*i+1 < heapSize) {
+			int child = 2*i+1;
+			if (child+1 < heapSize && heap[child+1] < heap[child])
+				child++;
+			if (heap[child] >= value)
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = value;
+		return heapSize;
+	}
+}
@@ -0,0 +1,232 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import bc.*;
+
+/*
+ * Holds how much damage a unit would take on each tile
+ *
+ * Each enemy type threatens a fixed shape around itself (its kernel) so we build each shape once as a list of
+ * column spans and stamp it into a flat array (indexed by tile) a span at a time.
+ * We remember what each enemy stamped so that its danger can be removed if we kill it during the turn
+ * The tiles with any danger are also kept as a mask so whole sets of tiles can be filtered at once
+ */
+public class DangerField {
+	private MapCache map;
+	private int w;
+	private int h;
+	private StampedIntArray danger; //Indexed by tile - reset each turn
+	private TileSet dangerous; //Tiles where danger is not 0
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private ArrayList<Kernel>[] kernels = new ArrayList[UnitType.values().length]; //Kernels already built for each unit type
+	private ArrayList<Kernel> areas = new ArrayList<Kernel>(); //Plain disk kernels already built
+
+	/*
+	 * What each enemy has stamped this turn - indexed by slot, the slot for an enemy is found from its id with threatSlot
+	 */
+	private IntMap threatSlot = new IntMap(256);
+	private Kernel[] threatKernel = new Kernel[64];
+	private int[] threatTile = new int[64];
+	private int[] threatAmount = new int[64];
+	private int threats = 0;
+
+	public DangerField(MapCache mc) {
+		map = mc;
+		w = mc.width();
+		h = mc.height();
+		danger = new StampedIntArray(w*h);
+		dangerous = new TileSet(w, h);
+		for (int i=0; i<kernels.length; i++)
+			kernels[i] = new ArrayList<Kernel>();
+	}
+
+	public void clear() {
+		danger.reset();
+		dangerous.clear();
+		threatSlot.clear();
+		threats = 0;
+	}
+
+	public int danger(int tile) {
+		return danger.get(tile);
+	}
+
+	/*
+	 * The tiles with any danger - shared so must not be modified
+	 */
+	public TileSet mask() {
+		return dangerous;
+	}
+	
+	public void addDanger(int tile, int d) {
+		danger.add(tile, d);
+		dangerous.set(tile, danger.get(tile) != 0);
+	}
+
+	/*
+	 * Stamp a kernel centred on cx,cy with each tile in it taking amount (times its weight) damage
+	 */
+	public void add(Kernel k, int cx, int cy, int amount) {
+		for (int i=0; i<k.spans; i++) {
+			int x = cx + k.dx[i];
+			if (x < 0 || x >= w)
+				continue;
+			int y0 = Math.max(0, cy + k.y0[i]), y1 = Math.min(h-1, cy + k.y1[i]);
+			int d = amount * k.weight[i];
+			int blocked = amount * k.blockedWeight[i];
+			for (int t = x*h + y0, end = x*h + y1; t <= end; t++) {
+				int td = (d == blocked || map.passable(t))?d:blocked;
+				if (td == 0)
+					continue;
+				danger.add(t, td);
+				dangerous.set(t, danger.get(t) != 0);
+			}
+		}
+	}
+
+	/*
+	 * As above but remember the stamp against the enemy id so it can be removed later
+	 */
+	public void add(int id, Kernel k, int cx, int cy, int amount) {
+		if (threatSlot.containsKey(id))
+			remove(id);
+
+		if (threats == threatKernel.length) {
+			threatKernel = Arrays.copyOf(threatKernel, threats*2);
+			threatTile = Arrays.copyOf(threatTile, threats*2);
+			threatAmount = Arrays.copyOf(threatAmount, threats*2);
+		}
+		threatSlot.put(id, threats);
+		threatKernel[threats] = k;
+		threatTile[threats] = map.tile(cx, cy);
+		threatAmount[threats] = amount;
+		threats++;
+
+		add(k, cx, cy, amount);
+	}
+
+	/*
+	 * Remove all the danger stamped by the given enemy (e.g. we have just killed it)
+	 */
+	public void remove(int id) {
+		int slot = threatSlot.get(id);
+		if (slot < 0)
+			return;
+
+		threatSlot.remove(id);
+		add(threatKernel[slot], map.x(threatTile[slot]), map.y(threatTile[slot]), -threatAmount[slot]);
+		threatKernel[slot] = null;
+	}
+
+	/*
+	 * Returns the shape of the area threatened by a unit of the given type with the given attack range
+	 * - Knights move then attack so they threaten radius 10 and their passable neighbours twice
+	 * - Rockets damage their passable neighbours when they take off
+	 * - Everyone else threatens the tiles they can attack
+	 */
+	public Kernel threat(UnitType type, long min, long max) {
+		for (Kernel k: kernels[type.ordinal()]) {
+			if (k.min == min && k.max == max)
+				return k;
+		}
+
+		Kernel k;
+		switch (type) {
+			case Knight:
+				k = new Kernel(min, max, map.disk(-1, 10), map.disk(0, 2));
+				break;
+			case Rocket:
+				k = new Kernel(min, max, null, map.disk(0, 2));
+				break;
+			default:
+				k = new Kernel(min, max, map.disk(min, max), null);
+				break;
+		}
+		kernels[type.ordinal()].add(k);
+		return k;
+	}
+
+	/*
+	 * A kernel covering a disk (weight 1)
+	 */
+	public Kernel area(long min, long max) {
+		for (Kernel k: areas) {
+			if (k.min == min && k.max == max)
+				return k;
+		}
+		
+		Kernel k = new Kernel(min, max, map.disk(min, max), null);
+		areas.add(k);
+		return k;
+	}
+
+	/*
+	 * The shape of a threat stored as spans of tiles in a column: dx, y0 to y1 (inclusive) relative to the centre
+	 * Tiles covered by both of the disks it is made from get a higher weight
+	 * The second disk only covers passable tiles so impassable tiles take blockedWeight instead
+	 */
+	public static class Kernel {
+		private final long	min; //The attack range this was built for
+		private final long	max;
+		public final int	spans;
+		public final int[]	dx;
+		public final int[]	y0;
+		public final int[]	y1;
+		public final int[]	weight;
+		public final int[]	blockedWeight; //The weight of an impassable tile
+
+		/*
+		 * Either disk may be null
+		 */
+		private Kernel(long minRange, long maxRange, MapCache.Disk disk, MapCache.Disk passableOnly) {
+			min = minRange;
+			max = maxRange;
+
+			int r = 0;
+			for (MapCache.Disk d: new MapCache.Disk[] { disk, passableOnly })
+				for (int i=0; d != null && i<d.size; i++)
+					r = Math.max(r, Math.max(Math.abs(d.dx[i]), Math.abs(d.dy[i])));
+
+			int size = 2*r+1;
+			int[][] grid = new int[size][size];
+			int[][] blockedGrid = new int[size][size];
+			for (int i=0; disk != null && i<disk.size; i++) {
+				grid[disk.dx[i]+r][disk.dy[i]+r]++;
+				blockedGrid[disk.dx[i]+r][disk.dy[i]+r]++;
+			}
+			for (int i=0; passableOnly != null && i<passableOnly.size; i++)
+				grid[passableOnly.dx[i]+r][passableOnly.dy[i]+r]++;
+
+			//Join runs of the same weights in each column into spans
+			int[] sx = new int[size*size], sy0 = new int[size*size], sy1 = new int[size*size], sw = new int[size*size], sb = new int[size*size];
+			int n = 0;
+			for (int x=0; x<size; x++) {
+				int y = 0;
+				while (y < size) {
+					if (grid[x][y] == 0) {
+						y++;
+						continue;
+					}
+					int start = y;
+					while (y+1 < size && grid[x][y+1] == grid[x][start] && blockedGrid[x][y+1] == blockedGrid[x][start])
+						y++;
+					sx[n] = x-r;
+					sy0[n] = start-r;
+					sy1[n] = y-r;
+					sw[n] = grid[x][start];
+					sb[n] = blockedGrid[x][start];
+					n++;
+					y++;
+				}
+			}
+
+			spans = n;
+			dx = Arrays.copyOf(sx, n);
+			y0 = Arrays.copyOf(sy0, n);
+			y1 = Arrays.copyOf(sy1, n);
+			weight = Arrays.copyOf(sw, n);
+			blockedWeight = Arrays.copyOf(sb, n);
+		}
+	}
+}
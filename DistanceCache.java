@@ -0,0 +1,227 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import bc.*;
+
+/*
+ * Keeps the breadth first search behind a ripple (see Player.ripple) from one turn to the next for sources that rarely change -
+ * the enemy start positions, karbonite deposits, the explore zone on quiet turns and rockets waiting to be boarded
+ *
+ * Terrain never changes so the distances from a set of sources only depend on the source tiles and which of them already
+ * hold a unit that stops the ripple (those don't spread - see FusedRipple). Both go into the fingerprint a field is stored under.
+ * When the fingerprint matches we only reapply the gravity - walk the tiles in distance order adding the score and counting
+ * our units until max or stop is reached, exactly as the ripple would have. Unit positions are only used for this count
+ * so units moving about don't stop a field being reused.
+ *
+ * A field is built a layer at a time as ripples need it so a ripple that stops early only pays for the layers it used.
+ * The least recently used fields are dropped when the total size goes over the memory cap and the buffers of one of them
+ * are kept for the next field we have to build.
+ */
+public class DistanceCache {
+	private MapCache map;
+	private UnitCache units;
+	private Team team; //Whose units stop the ripples
+	private long maxBytes; //Memory cap for all the fields
+	private long bytes; //Memory used by the fields we hold
+
+	private LinkedHashMap<Long, Field> fields = new LinkedHashMap<Long, Field>(16, 0.75f, true); //Least recently used first
+	private Field spare = null; //A dropped field whose buffers are reused by the next miss
+	private TileSet pending; //Sources added for the next ripple
+	private int[] sources; //Scratch - the pending sources in tile order
+	private boolean[] blocked; //Scratch - indexed as sources - true if the source holds a match so doesn't spread
+
+	public DistanceCache(MapCache mc, UnitCache uc, Team myTeam, long memoryCap) {
+		map = mc;
+		units = uc;
+		team = myTeam;
+		maxBytes = memoryCap;
+		pending = new TileSet(mc.width(), mc.height());
+		sources = new int[mc.tiles()];
+		blocked = new boolean[mc.tiles()];
+	}
+
+	/*
+	 * Add a starting tile for the next ripple - impassable tiles and duplicates are ignored
+	 */
+	public void addSource(int tile) {
+		if (map.passable(tile))
+			pending.set(tile);
+	}
+
+	public void addSource(MapLocation m) {
+		addSource(map.tile(m));
+	}
+
+	/*
+	 * Ripple out from the sources added since the last call scoring into each of the target maps
+	 * The arguments are the same as FusedRipple.addJob and each map is scored exactly as that job would have scored it
+	 */
+	public void ripple(GravityMap[] maps, float points, UnitType match, boolean ignoreWorkers, int max, int stop) {
+		int count = 0, matchCount = 0;
+		long key = 0xcbf29ce484222325L;
+		for (int t = pending.nextSetBit(0); t >= 0; t = pending.nextSetBit(t+1)) {
+			boolean isMatch = units.isMatch(t, team, match, ignoreWorkers);
+			if (isMatch)
+				matchCount++;
+			sources[count] = t;
+			blocked[count] = (isMatch && match != null);
+			key = (key ^ (t*2 + (blocked[count]?1:0))) * 0x100000001b3L;
+			count++;
+		}
+		pending.clear();
+		if (count == 0)
+			return;
+
+		Field field = fields.get(key);
+		if (field != null && !field.same(sources, blocked, count)) { //Two source sets with the same fingerprint - keep the new one
+			fields.remove(key);
+			bytes -= field.bytes;
+			spare = field;
+			field = null;
+		}
+		if (field == null) {
+			if (spare != null) {
+				field = spare;
+				spare = null;
+				field.init(sources, blocked, count);
+			} else {
+				field = new Field(map.tiles(), sources, blocked, count);
+			}
+			fields.put(key, field);
+			bytes += field.bytes;
+			evict();
+		}
+
+		/*
+		 * Layer d is distance d+1 in ripple terms
+		 */
+		for (int d=0; field.ensure(d, map); d++) {
+			if (stop > 0 && d+1 >= stop)
+				return;
+			float gravity = points * GravityMap.falloff(d+1);
+			for (int i=field.start(d); i<field.end(d); i++) {
+				for (GravityMap target: maps)
+					target.add(field.order[i], gravity);
+			}
+
+			if (!field.ensure(d+1, map))
+				return;
+			for (int i=field.start(d+1); i<field.end(d+1); i++) {
+				if (units.occupied(field.order[i]) && units.isMatch(field.order[i], team, match, ignoreWorkers))
+					matchCount++;
+			}
+			if (matchCount >= max)
+				return;
+		}
+	}
+
+	public void ripple(GravityMap map, float points, UnitType match, int max, int stop) {
+		ripple(new GravityMap[] { map }, points, match, false, max, stop);
+	}
+
+	/*
+	 * Drop the least recently used fields until we are back under the cap - the newest is always kept
+	 */
+	private void evict() {
+		Iterator<Field> it = fields.values().iterator();
+		while (bytes > maxBytes && fields.size() > 1) {
+			Field oldest = it.next();
+			bytes -= oldest.bytes;
+			it.remove();
+			if (spare == null)
+				spare = oldest;
+		}
+	}
+
+	/*
+	 * The tiles reached from a set of sources in order of distance
+	 * Tiles in layer d (distance d from the nearest source) are order[start(d)] to order[end(d)-1]
+	 */
+	private static class Field {
+		private int[] sources; //The sources in tile order - only the first count are used
+		private boolean[] blocked; //Indexed as sources
+		private int count;
+		private TileSet reached; //Tiles already in order
+		private short[] order; //Maps are never bigger than 50x50 so a tile fits in a short
+		private int size; //Entries of order filled
+		private IntList layerEnd = new IntList(); //Indexed by layer - end of the layer in order
+		private boolean complete = false; //Every reachable tile is in order
+		private long bytes; //Roughly what this field costs us
+
+		Field(int tiles, int[] s, boolean[] b, int n) {
+			sources = new int[n];
+			blocked = new boolean[n];
+			order = new short[tiles];
+			reached = new TileSet(tiles, 1);
+			init(s, b, n);
+		}
+
+		/*
+		 * Start again from a new set of sources - the buffers are kept
+		 */
+		void init(int[] s, boolean[] b, int n) {
+			if (sources.length < n) {
+				sources = new int[n];
+				blocked = new boolean[n];
+			}
+			count = n;
+			System.arraycopy(s, 0, sources, 0, count);
+			System.arraycopy(b, 0, blocked, 0, count);
+			reached.clear();
+			layerEnd.clear();
+			size = 0;
+			complete = false;
+			for (int i=0; i<count; i++) {
+				reached.set(sources[i]);
+				order[size++] = (short)sources[i];
+			}
+			layerEnd.add(size);
+			bytes = 64 + 5L*sources.length + 2L*order.length + order.length/8;
+		}
+
+		boolean same(int[] s, boolean[] b, int n) {
+			if (n != count)
+				return false;
+			for (int i=0; i<n; i++) {
+				if (s[i] != sources[i] || b[i] != blocked[i])
+					return false;
+			}
+			return true;
+		}
+
+		int start(int layer) {
+			return (layer == 0)?0:layerEnd.get(layer-1);
+		}
+
+		int end(int layer) {
+			return layerEnd.get(layer);
+		}
+
+		/*
+		 * Search out until the given layer exists - returns false if the sources don't reach that far
+		 * Sources that are blocked don't spread
+		 */
+		boolean ensure(int layer, MapCache map) {
+			while (layerEnd.size() <= layer && !complete) {
+				int last = layerEnd.size()-1;
+				for (int i=start(last); i<end(last); i++) {
+					if (last == 0 && blocked[i])
+						continue;
+					int tile = order[i];
+					for (int j=map.firstPassableNeighbour(tile); j<map.endPassableNeighbour(tile); j++) {
+						int n = map.passableNeighbour(j);
+						if (!reached.get(n)) {
+							reached.set(n);
+							order[size++] = (short)n;
+						}
+					}
+				}
+				if (size == end(last))
+					complete = true;
+				else
+					layerEnd.add(size);
+			}
+			return layer < layerEnd.size();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+import java.util.Arrays;
+
+/*
+ * Walking distances (moves, diagonals allowed) between any two tiles of our planet, built once at the start of the game
+ *
+ * Zones small enough (up to ALL_PAIRS_LIMIT tiles) get a full table - a breadth first search from every tile stored as shorts
+ * so a distance is a single lookup. Bigger zones would need too much memory and time so we store the distance from a few
+ * landmarks instead (ALT) - the triangle inequality then gives a lower bound for any pair, which we combine with the
+ * king move distance. The landmarks are spread out by always picking the tile furthest from the ones already chosen.
+ *
+ * Tiles in different zones (or impassable ones) can never reach each other - UNREACHABLE
+ */
+public class DistanceOracle {
+	public static final int UNREACHABLE = -1;
+	public static final int ALL_PAIRS_LIMIT = 900; //Zones with up to this many tiles get a full table (1.6MB at the limit)
+	public static final int LANDMARKS = 8; //Per zone too big for a full table
+
+	private MapCache map;
+	private int[] zoneOf; //Indexed by tile - the zone it is in or -1 if impassable
+	private int[] index; //Indexed by tile - where it is in its zone's tile list
+	private int[][] zoneTiles; //Indexed by zone - its tiles
+	private short[][] table; //Indexed by zone - distance from tile i to tile j is [i*n + j], null if the zone uses landmarks
+	private short[][][] landmarks; //Indexed by zone then landmark - distance to each tile (indexed as zoneTiles), null if it has a table
+
+	/*
+	 * Runs the searches - only call this at the start of the game when there is time to spare
+	 */
+	public DistanceOracle(MapCache mc, MapAnalyser analysis) {
+		map = mc;
+		int tiles = mc.tiles(), zones = analysis.zones.size();
+		zoneOf = new int[tiles];
+		Arrays.fill(zoneOf, -1);
+		index = new int[tiles];
+		zoneTiles = new int[zones][];
+		table = new short[zones][];
+		landmarks = new short[zones][][];
+		int[] queue = new int[tiles];
+
+		for (MapZone zone: analysis.zones) {
+			int z = zone.id, n = zone.tiles.size();
+			zoneTiles[z] = new int[n];
+			for (int i=0; i<n; i++) {
+				int t = mc.tileOf(zone.tiles.get(i));
+				zoneTiles[z][i] = t;
+				zoneOf[t] = z;
+				index[t] = i;
+			}
+
+			if (n <= ALL_PAIRS_LIMIT) {
+				table[z] = new short[n*n];
+				for (int i=0; i<n; i++)
+					search(z, zoneTiles[z][i], table[z], i*n, queue);
+			} else {
+				/*
+				 * The first landmark is the tile furthest from an arbitrary one, then each one after is the tile furthest from all chosen so far
+				 */
+				int count = Math.min(LANDMARKS, n);
+				landmarks[z] = new short[count][n];
+				short[] nearest = new short[n]; //Distance to the nearest landmark chosen so far
+				search(z, zoneTiles[z][0], nearest, 0, queue);
+				for (int l=0; l<count; l++) {
+					int furthest = 0;
+					for (int i=1; i<n; i++) {
+						if (nearest[i] > nearest[furthest])
+							furthest = i;
+					}
+					search(z, zoneTiles[z][furthest], landmarks[z][l], 0, queue);
+					for (int i=0; i<n; i++) {
+						if (l == 0 || landmarks[z][l][i] < nearest[i])
+							nearest[i] = landmarks[z][l][i];
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Breadth first search from a tile filling in the distance to every tile of its zone (indexed as zoneTiles) from offset on
+	 */
+	private void search(int z, int from, short[] distance, int offset, int[] queue) {
+		int n = zoneTiles[z].length;
+		Arrays.fill(distance, offset, offset + n, (short)-1);
+		distance[offset + index[from]] = 0;
+		int head = 0, tail = 0;
+		queue[tail++] = from;
+		while (head < tail) {
+			int t = queue[head++];
+			short next = (short)(distance[offset + index[t]] + 1);
+			for (int j=map.firstPassableNeighbour(t); j<map.endPassableNeighbour(t); j++) {
+				int nb = map.passableNeighbour(j);
+				if (distance[offset + index[nb]] < 0) {
+					distance[offset + index[nb]] = next;
+					queue[tail++] = nb;
+				}
+			}
+		}
+	}
+
+	/*
+	 * True if every zone has a full table so all distances are exact
+	 */
+	public boolean complete() {
+		for (short[] t: table) {
+			if (t == null)
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * True if distance between tiles in this zone is exact rather than a lower bound
+	 */
+	public boolean isExact(int tile) {
+		return zoneOf[tile] >= 0 && table[zoneOf[tile]] != null;
+	}
+
+	/*
+	 * The number of moves from one tile to another - exact if isExact otherwise the best lower bound we have
+	 */
+	public int distance(int from, int to) {
+		int z = zoneOf[from];
+		if (z < 0 || zoneOf[to] != z)
+			return UNREACHABLE;
+
+		int a = index[from], b = index[to];
+		if (table[z] != null)
+			return table[z][a*zoneTiles[z].length + b];
+
+		int best = Math.max(Math.abs(map.x(from) - map.x(to)), Math.abs(map.y(from) - map.y(to)));
+		for (short[] l: landmarks[z])
+			best = Math.max(best, Math.abs(l[a] - l[b]));
+		return best;
+	}
+}
@@ -0,0 +1,230 @@
+import java.util.Arrays;
+
+import bc.*;
+
+/*
+ * Runs several ripples (see Player.ripple) at once so they share a single breadth first search
+ * Each ripple is a job - a set of source tiles, the gravity maps to score into, the points, the unit type that stops it and
+ * how many of them (max) or how far (stop) it goes
+ *
+ * Every tile carries a bit mask of the jobs that have reached it (so at most 64 jobs per pass) and the search moves
+ * one layer at a time for all jobs together. A tile is only visited once per layer whichever jobs reach it, and
+ * the unit on it is only looked up once, so overlapping sources (e.g. enemies and the explore zone) cost little more than one.
+ * Sources in different zones never meet so they are searched side by side in the same pass.
+ * Each job keeps its own match count and drops out of the mask when it is satisfied or reaches its stop distance.
+ */
+public class FusedRipple {
+	private static final int MAX_JOBS = 64;
+
+	private MapCache map;
+	private UnitCache units;
+	private Team team; //Whose units stop the ripples
+
+	private long[] reached; //Indexed by tile - the jobs that have already queued it
+	private int[] reachedEpoch; //Indexed by tile - reached is only valid if this matches epoch
+	private int epoch;
+	private long[] layerMask; //Indexed by tile - the jobs that have it in the current layer
+	private long[] nextMask; //Indexed by tile - the jobs that have it in the next layer
+	private int[] layer; //Tiles in the current layer
+	private int layerSize;
+	private int[] next; //Tiles in the next layer
+	private int nextSize;
+
+	/*
+	 * The jobs - indexed by job number (its bit in the masks)
+	 */
+	private int jobs;
+	private GravityMap[][] targets = new GravityMap[MAX_JOBS][];
+	private float[] points = new float[MAX_JOBS];
+	private int[] max = new int[MAX_JOBS];
+	private int[] stop = new int[MAX_JOBS];
+	private int[] matchCount = new int[MAX_JOBS];
+	private float[] gravity = new float[MAX_JOBS]; //Score for the current layer
+	private long[] typeMask = new long[UnitType.values().length]; //Indexed by unit type - the jobs a unit of that type counts towards
+	private long matchJobs; //Jobs that have a match type - they don't spread from a starting tile that already holds a match
+
+	public FusedRipple(MapCache mc, UnitCache uc, Team myTeam) {
+		map = mc;
+		units = uc;
+		team = myTeam;
+		int tiles = mc.tiles();
+		reached = new long[tiles];
+		reachedEpoch = new int[tiles];
+		layerMask = new long[tiles];
+		nextMask = new long[tiles];
+		layer = new int[tiles];
+		next = new int[tiles];
+		epoch = 0;
+	}
+
+	/*
+	 * Drop all jobs and start a new pass
+	 */
+	public void clear() {
+		for (int i=0; i<layerSize; i++)
+			layerMask[layer[i]] = 0;
+		layerSize = 0;
+		jobs = 0;
+		matchJobs = 0;
+		Arrays.fill(typeMask, 0);
+		epoch++;
+		if (epoch == Integer.MAX_VALUE) { //Wrapped - the old stamps could now look current
+			Arrays.fill(reachedEpoch, 0);
+			epoch = 1;
+		}
+	}
+
+	/*
+	 * Add a ripple that scores into each of the target maps
+	 * match == null counts any of our units, workers can be excluded (rockets don't want them early on)
+	 * Returns the job number to add the sources to
+	 * If the pass is full the jobs so far are run first and a new pass started
+	 */
+	public int addJob(GravityMap[] maps, float value, UnitType match, boolean ignoreWorkers, int maxMatches, int stopDistance) {
+		if (jobs == MAX_JOBS)
+			run();
+
+		int job = jobs++;
+		long bit = 1L << job;
+		targets[job] = maps;
+		points[job] = value;
+		max[job] = maxMatches;
+		stop[job] = stopDistance;
+		matchCount[job] = 0;
+		if (match != null)
+			matchJobs |= bit;
+		for (UnitType t: UnitType.values())
+			if ((match == null || match == t) && (t != UnitType.Worker || !ignoreWorkers))
+				typeMask[t.ordinal()] |= bit;
+		return job;
+	}
+
+	public int addJob(GravityMap map, float value, UnitType match, int maxMatches, int stopDistance) {
+		return addJob(new GravityMap[] { map }, value, match, false, maxMatches, stopDistance);
+	}
+
+	/*
+	 * Add a starting tile to a job - impassable tiles and ones the job already has are ignored
+	 */
+	public void addSource(int job, int tile) {
+		if (!map.passable(tile))
+			return;
+		long bit = 1L << job;
+		if (reachedEpoch[tile] != epoch) {
+			reachedEpoch[tile] = epoch;
+			reached[tile] = 0;
+		}
+		if ((reached[tile] & bit) != 0)
+			return;
+
+		reached[tile] |= bit;
+		if (layerMask[tile] == 0)
+			layer[layerSize++] = tile;
+		layerMask[tile] |= bit;
+		if ((matches(tile) & bit) != 0)
+			matchCount[job]++;
+	}
+
+	public void addSource(int job, MapLocation m) {
+		addSource(job, map.tile(m));
+	}
+
+	/*
+	 * Add all the tiles in the disk around cx,cy that are on the map
+	 */
+	public void addDisk(int job, int cx, int cy, MapCache.Disk disk) {
+		for (int i=0; i<disk.size; i++) {
+			int x = cx + disk.dx[i], y = cy + disk.dy[i];
+			if (map.onMap(x, y))
+				addSource(job, map.tile(x, y));
+		}
+	}
+
+	/*
+	 * The jobs that a unit on this tile counts towards
+	 */
+	private long matches(int tile) {
+		if (!units.occupied(tile))
+			return 0;
+		UnitType type = units.typeAt(tile, team);
+		return (type == null)?0:typeMask[type.ordinal()];
+	}
+
+	/*
+	 * Run all the jobs added since the last pass
+	 * Each job scores the same as a separate ripple would have
+	 */
+	public void run() {
+		long active = (jobs == MAX_JOBS)?-1L:(1L << jobs) - 1;
+		int distance = 0;
+
+		while (layerSize > 0) {
+			distance++;
+			for (long a = active; a != 0; a &= a-1) {
+				int job = Long.numberOfTrailingZeros(a);
+				if (stop[job] > 0 && distance >= stop[job])
+					active &= ~(1L << job);
+				else
+					gravity[job] = points[job] * GravityMap.falloff(distance);
+			}
+			if (active == 0)
+				break;
+
+			nextSize = 0;
+			for (int i=0; i<layerSize; i++) {
+				int tile = layer[i];
+				long here = layerMask[tile] & active;
+				layerMask[tile] = 0;
+
+				//Score this tile for every job that has reached it
+				for (long m = here; m != 0; m &= m-1) {
+					int job = Long.numberOfTrailingZeros(m);
+					for (GravityMap target: targets[job])
+						target.add(tile, gravity[job]);
+				}
+
+				if (distance == 1) //Starting tiles already occupied by the right unit don't spread
+					here &= ~(matches(tile) & matchJobs);
+				if (here == 0)
+					continue;
+
+				for (int j=map.firstPassableNeighbour(tile); j<map.endPassableNeighbour(tile); j++) {
+					int n = map.passableNeighbour(j);
+					if (reachedEpoch[n] != epoch) {
+						reachedEpoch[n] = epoch;
+						reached[n] = 0;
+					}
+					long fresh = here & ~reached[n];
+					if (fresh == 0)
+						continue;
+
+					reached[n] |= fresh;
+					if (nextMask[n] == 0)
+						next[nextSize++] = n;
+					nextMask[n] |= fresh;
+					for (long m = fresh & matches(n); m != 0; m &= m-1)
+						matchCount[Long.numberOfTrailingZeros(m)]++;
+				}
+			}
+
+			//The next layer becomes the current one
+			int[] swapTiles = layer;
+			layer = next;
+			next = swapTiles;
+			layerSize = nextSize;
+			long[] swapMask = layerMask;
+			layerMask = nextMask;
+			nextMask = swapMask;
+
+			for (long a = active; a != 0; a &= a-1) {
+				int job = Long.numberOfTrailingZeros(a);
+				if (matchCount[job] >= max[job])
+					active &= ~(1L << job);
+			}
+			if (active == 0)
+				break;
+		}
+
+		clear(); //Ready for the next pass
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * What one kind of unit sees - a weighted sum of the gravity layers (see GravityLayers) worked out as each tile is read
+ * Only the layers with a non zero weight are looked at
+ */
+public class GravityBlend {
+	private GravityMap[] layers; //Indexed by layer
+	private float[] weights; //Indexed by layer
+	private int[] used; //The layers with a non zero weight
+	private int usedCount = 0;
+
+	GravityBlend(GravityMap[] l) {
+		layers = l;
+		weights = new float[l.length];
+		used = new int[l.length];
+	}
+
+	public void setWeight(int layer, float weight) {
+		weights[layer] = weight;
+		usedCount = 0;
+		for (int l=0; l<layers.length; l++) {
+			if (weights[l] != 0)
+				used[usedCount++] = l;
+		}
+	}
+
+	public float weight(int layer) {
+		return weights[layer];
+	}
+
+	public float get(int tile) {
+		float v = 0;
+		for (int i=0; i<usedCount; i++)
+			v += weights[used[i]] * layers[used[i]].get(tile);
+		return v;
+	}
+}
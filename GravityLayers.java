@@ -0,0 +1,38 @@
+/*
+ * The gravity maps held as named layers - each is written once per round however many unit types read it
+ *
+ * Ripples score into the layer they belong to (the rocket call, the healing field and a target layer per unit type)
+ * and each unit type reads a blend of them (see GravityBlend) with its own weights. The layers can be reset
+ * and rebuilt independently.
+ */
+public class GravityLayers {
+	public static final int ROCKET = 0, HEALING = 1, WORKER = 2, RANGER = 3, MAGE = 4, KNIGHT = 5, HEALER = 6;
+	public static final int LAYERS = 7;
+
+	private GravityMap[] layers = new GravityMap[LAYERS]; //Indexed by layer
+
+	public GravityLayers(int tiles) {
+		for (int l=0; l<LAYERS; l++)
+			layers[l] = new GravityMap(tiles);
+	}
+
+	public GravityMap layer(int l) {
+		return layers[l];
+	}
+
+	public void reset(int l) {
+		layers[l].reset();
+	}
+
+	public void reset() {
+		for (GravityMap layer: layers)
+			layer.reset();
+	}
+
+	/*
+	 * A new blend of these layers with all weights 0
+	 */
+	public GravityBlend blend() {
+		return new GravityBlend(layers);
+	}
+}
@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+/*
+ * A gravity map - how attractive each tile is for a unit type (indexed by tile - see MapCache.tile)
+ * Scores are held as floats in one flat array and can be reset to all zeros in O(1)
+ * Each cell remembers the generation it was last written in - a cell from an older generation reads as 0
+ *
+ * Ripples score each layer with points * falloff(distance) where falloff is 1/(d*d) read from a table built once
+ *
+ * Ripples can also be deferred (see LazyGravity) - their score for a tile is worked out the first time it is read
+ * and kept with the same generation stamps
+ */
+public class GravityMap {
+	private static float[] falloff = new float[0]; //Indexed by distance - 1/(d*d)
+	
+	private float[] values;
+	private int[] stamps;
+	private int generation;
+	private LazyGravity lazy = null; //Works out the deferred jobs
+	private IntList deferred = new IntList(); //Jobs in lazy that score into this map
+	private float[] lazyValues; //Indexed by tile - the score of the deferred jobs
+	private int[] lazyStamps; //Indexed by tile - lazyValues is only valid if this matches generation
+	
+	public GravityMap(int tiles) {
+		values = new float[tiles];
+		stamps = new int[tiles];
+		lazyValues = new float[tiles];
+		lazyStamps = new int[tiles];
+		generation = 1;
+		
+		if (falloff.length <= tiles) { //A ripple can never go further than the number of tiles
+			falloff = new float[tiles+1];
+			for (int d=1; d<=tiles; d++)
+				falloff[d] = 1.0f / ((float)d*d);
+		}
+	}
+	
+	/*
+	 * How much of a ripple's points are scored at the given distance from its source
+	 */
+	public static float falloff(int distance) {
+		return falloff[distance];
+	}
+	
+	/*
+	 * Start a new generation - every cell now reads as 0
+	 */
+	public void reset() {
+		generation++;
+		if (generation == Integer.MAX_VALUE) { //Wrapped - clear the old stamps so they can't look current
+			Arrays.fill(stamps, 0);
+			Arrays.fill(lazyStamps, 0);
+			generation = 1;
+		}
+		deferred.clear();
+	}
+	
+	public float get(int tile) {
+		float v = (stamps[tile] == generation)?values[tile]:0;
+		if (deferred.size() > 0) {
+			if (lazyStamps[tile] != generation) {
+				float score = 0;
+				for (int i=0; i<deferred.size(); i++)
+					score += lazy.score(deferred.get(i), tile);
+				lazyValues[tile] = score;
+				lazyStamps[tile] = generation;
+			}
+			v += lazyValues[tile];
+		}
+		return v;
+	}
+	
+	/*
+	 * Add a job from a LazyGravity to this map - its scores are added in as tiles are read
+	 */
+	public void defer(LazyGravity l, int job) {
+		lazy = l;
+		deferred.add(job);
+	}
+	
+	public void add(int tile, float v) {
+		if (stamps[tile] == generation)
+			values[tile] += v;
+		else {
+			values[tile] = v;
+			stamps[tile] = generation;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+
+import bc.*;
+
+/*
+ * Every object the engine gives us is a Java wrapper around a native one that is only freed when the wrapper is finalized.
+ * Left to the garbage collector these pile up over a long game and the finalizer backlog shows up as pauses,
+ * so we free them ourselves.
+ *
+ * Anything the engine returns that we only need for the current round is added to this arena and they are all
+ * deleted together at the end of the round (see release). Objects we only need for a moment can be freed at once (free).
+ * Objects kept for the whole game (the starting map, the asteroid and orbit patterns) are simply not added.
+ */
+public class Handles {
+	private ArrayList<Unit>				units = new ArrayList<Unit>();
+	private ArrayList<MapLocation>		mapLocations = new ArrayList<MapLocation>();
+	private ArrayList<VecUnit>			vecUnits = new ArrayList<VecUnit>();
+	private ArrayList<VecUnitID>		vecUnitIDs = new ArrayList<VecUnitID>();
+	private ArrayList<VecRocketLanding>	vecLandings = new ArrayList<VecRocketLanding>();
+	private ArrayList<RocketLanding>	landings = new ArrayList<RocketLanding>();
+	private ArrayList<AsteroidStrike>	strikes = new ArrayList<AsteroidStrike>();
+	private ArrayList<RocketLandingInfo> landingInfo = new ArrayList<RocketLandingInfo>();
+	private ArrayList<ResearchInfo>		research = new ArrayList<ResearchInfo>();
+
+	/*
+	 * Add a handle to this round's arena - each returns its argument so calls can be wrapped
+	 */
+	public Unit add(Unit u) {
+		if (u != null)
+			units.add(u);
+		return u;
+	}
+
+	public MapLocation add(MapLocation m) {
+		if (m != null)
+			mapLocations.add(m);
+		return m;
+	}
+
+	public VecUnit add(VecUnit v) {
+		if (v != null)
+			vecUnits.add(v);
+		return v;
+	}
+
+	public VecUnitID add(VecUnitID v) {
+		if (v != null)
+			vecUnitIDs.add(v);
+		return v;
+	}
+
+	public VecRocketLanding add(VecRocketLanding v) {
+		if (v != null)
+			vecLandings.add(v);
+		return v;
+	}
+
+	public RocketLanding add(RocketLanding r) {
+		if (r != null)
+			landings.add(r);
+		return r;
+	}
+
+	public AsteroidStrike add(AsteroidStrike a) {
+		if (a != null)
+			strikes.add(a);
+		return a;
+	}
+
+	public RocketLandingInfo add(RocketLandingInfo r) {
+		if (r != null)
+			landingInfo.add(r);
+		return r;
+	}
+
+	public ResearchInfo add(ResearchInfo r) {
+		if (r != null)
+			research.add(r);
+		return r;
+	}
+
+	/*
+	 * Delete handles we have finished with straight away
+	 */
+	public void free(Location l) {
+		l.delete();
+	}
+
+	public void free(MapLocation m) {
+		m.delete();
+	}
+
+	/*
+	 * Delete everything added this round - none of these handles can be used after this
+	 */
+	public void release() {
+		for (Unit u: units)
+			u.delete();
+		units.clear();
+
+		for (MapLocation m: mapLocations)
+			m.delete();
+		mapLocations.clear();
+
+		for (VecUnit v: vecUnits)
+			v.delete();
+		vecUnits.clear();
+
+		for (VecUnitID v: vecUnitIDs)
+			v.delete();
+		vecUnitIDs.clear();
+
+		for (VecRocketLanding v: vecLandings)
+			v.delete();
+		vecLandings.clear();
+
+		for (RocketLanding r: landings)
+			r.delete();
+		landings.clear();
+
+		for (AsteroidStrike a: strikes)
+			a.delete();
+		for (RocketLandingInfo r: landingInfo)
+			r.delete();
+		for (ResearchInfo r: research)
+			r.delete();
+		strikes.clear();
+		landingInfo.clear();
+		research.clear();
+	}
+}
@@ -0,0 +1,67 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * A set of tiles that supports O(1) add, remove, contains and picking a member by index (or at random)
+ * Members are kept packed in an array and each tile remembers where it is in that array
+ */
+public class IndexedTileSet {
+	private int[] members; //The tiles in the set - the first size entries are valid
+	private int[] position; //Indexed by tile - where it is in members or -1 if it isn't in the set
+	private int size;
+	
+	public IndexedTileSet(int tiles) {
+		members = new int[tiles];
+		position = new int[tiles];
+		Arrays.fill(position, -1);
+		size = 0;
+	}
+	
+	public boolean contains(int tile) {
+		return position[tile] >= 0;
+	}
+	
+	public boolean add(int tile) {
+		if (position[tile] >= 0)
+			return false;
+		position[tile] = size;
+		members[size++] = tile;
+		return true;
+	}
+	
+	/*
+	 * Remove a tile by moving the last member into its place
+	 */
+	public boolean remove(int tile) {
+		int p = position[tile];
+		if (p < 0)
+			return false;
+		int last = members[--size];
+		members[p] = last;
+		position[last] = p;
+		position[tile] = -1;
+		return true;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public int get(int i) {
+		return members[i];
+	}
+	
+	public int random(Random r) {
+		return members[r.nextInt(size)];
+	}
+	
+	public void clear() {
+		for (int i=0; i<size; i++)
+			position[members[i]] = -1;
+		size = 0;
+	}
+}
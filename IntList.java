@@ -0,0 +1,73 @@
+import java.util.Arrays;
+
+/*
+ * A growable list of ints - avoids boxing when we need to keep lists of tiles or ids
+ */
+public class IntList {
+	private int[] values;
+	private int size;
+	
+	public IntList() {
+		this(16);
+	}
+	
+	public IntList(int capacity) {
+		values = new int[Math.max(capacity, 1)];
+		size = 0;
+	}
+	
+	public void add(int v) {
+		if (size == values.length)
+			values = Arrays.copyOf(values, size*2);
+		values[size++] = v;
+	}
+	
+	public int get(int i) {
+		return values[i];
+	}
+	
+	public void set(int i, int v) {
+		values[i] = v;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public void clear() {
+		size = 0;
+	}
+	
+	/*
+	 * Remove the entry at i by moving the last entry into its place - the order is not kept
+	 */
+	public int removeAt(int i) {
+		int v = values[i];
+		values[i] = values[--size];
+		return v;
+	}
+	
+	/*
+	 * Remove the first entry equal to v (order not kept) - returns false if there wasn't one
+	 */
+	public boolean remove(int v) {
+		for (int i=0; i<size; i++) {
+			if (values[i] == v) {
+				removeAt(i);
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public boolean contains(int v) {
+		for (int i=0; i<size; i++)
+			if (values[i] == v)
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+/*
+ * A hash map from int keys to int values using open addressing (linear probing)
+ * Used to index things by unit id without boxing - get returns -1 when a key is missing so values should be >= 0
+ */
+public class IntMap {
+	private static final int EMPTY = Integer.MIN_VALUE; //Unit ids are never negative
+	
+	private int[] keys;
+	private int[] values;
+	private int size;
+	private int mask;
+	
+	public IntMap(int capacity) {
+		int n = 16;
+		while (n < capacity*2) //Keep the table at most half full
+			n <<= 1;
+		keys = new int[n];
+		values = new int[n];
+		Arrays.fill(keys, EMPTY);
+		mask = n-1;
+		size = 0;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	}
+	
+	public boolean containsKey(int key) {
+		return keys[find(key)] == key;
+	}
+	
+	public int get(int key) {
+		int i = find(key);
+		return (keys[i] == key)?values[i]:-1;
+	}
+	
+	public void put(int key, int value) {
+		int i = find(key);
+		if (keys[i] != key) {
+			if ((size+1)*2 > keys.length) {
+				grow();
+				i = find(key);
+			}
+			keys[i] = key;
+			size++;
+		}
+		values[i] = value;
+	}
+	
+	public void remove(int key) {
+		int i = find(key);
+		if (keys[i] != key)
+			return;
+		
+		/*
+		 * Shift later entries in the same run back so that lookups don't stop early at the gap
+		 */
+		int gap = i;
+		for (int j = (i+1) & mask; keys[j] != EMPTY; j = (j+1) & mask) {
+			int home = hash(keys[j]);
+			if (((j - home) & mask) >= ((j - gap) & mask)) { //Entry can legally move to the gap
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		keys[gap] = EMPTY;
+		size--;
+	}
+	
+	/*
+	 * Returns the slot holding key, or the empty slot where it would go
+	 */
+	private int find(int key) {
+		int i = hash(key);
+		while (keys[i] != EMPTY && keys[i] != key)
+			i = (i+1) & mask;
+		return i;
+	}
+	
+	private int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+	
+	private void grow() {
+		int[] oldKeys = keys, oldValues = values;
+		keys = new int[oldKeys.length*2];
+		values = new int[oldKeys.length*2];
+		Arrays.fill(keys, EMPTY);
+		mask = keys.length-1;
+		size = 0;
+		for (int i=0; i<oldKeys.length; i++)
+			if (oldKeys[i] != EMPTY)
+				put(oldKeys[i], oldValues[i]);
+	}
+}
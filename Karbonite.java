@@ -1,113 +1,190 @@
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import bc.*;
 
 /*
  * Stores up to date karbonite data in two formats
- * First a list of all locations with karbonite
+ * First a list of all locations with karbonite (packed - see Loc)
  * Secondly an array of karbonite values indexed by [x][y]
+ *
+ * The values are kept up to date incrementally. Karbonite only ever goes down (apart from asteroids on Mars
+ * which we know about in advance) so a deposit can only change if we mined it (see harvest) or an enemy worker did.
+ * Each round we only ask the engine about deposits that have just come into view or are near an enemy worker - one we can see
+ * now, one we saw last round or one that could be standing just out of sight.
+ * The totals per zone (remaining and turns to mine) are adjusted by the change at each tile rather than recounted.
+ *
+ * Deposits are also indexed by how much they hold (in GROUPS of 10) as a TileSet per group. A deposit moves between groups
+ * in O(1) as it is mined.
  */
 public class Karbonite {
+	public static final int GROUPS = 5; //Deposits holding 0-9, 10-19, 20-29, 30-39 and 40+
+	
 	GameController gc;
 	private long[][] karboniteAt;
-	private LinkedList<MapLocation> karboniteLocations;
+	private IntList karboniteLocations;
+	private int[] position; //Indexed by tile - where the tile is in karboniteLocations or -1
+	private TileSet[] groupTiles; //Indexed by group - the deposits in it
 	private int[] maxWorkers; //How many workers we need to mine each zone
+	private long[] zoneRemaining; //Indexed by zone - the karbonite left in it
+	private long[] turnsToMine; //Indexed by zone - worker turns needed to mine it all
 	private MapCache mapCache;
-	private int remaining = 0; //The total karbonite potentially left on the map
-	
-	public Karbonite(GameController g, MapCache mc, int zones) {
+	private TileSet lastWorkers; //Tiles holding an enemy worker last round
+	private TileSet watch; //Scratch - tiles an enemy worker could be on
+	private TileSet nearWorkers; //Scratch - tiles an enemy worker could have mined since we last looked - see update
+	private long remaining = 0; //The total karbonite potentially left on the map
+	private Schedule schedule; //When and where the asteroids land
+
+	public Karbonite(GameController g, PlanetMap map, MapCache mc, Schedule s, int zones) {
 		gc = g;
-		Planet	myPlanet = gc.planet();
-		PlanetMap map = gc.startingMap(myPlanet);
+		schedule = s;
 		int w = (int) map.getWidth(), h = (int) map.getHeight();
-		int[] turnsToMine = new int[zones];
+		turnsToMine = new long[zones];
+		zoneRemaining = new long[zones];
 		maxWorkers = new int[zones];
 		mapCache = mc;
+		lastWorkers = new TileSet(w, h);
+		watch = new TileSet(w, h);
+		nearWorkers = new TileSet(w, h);
 		remaining = 0;
-		
+
 		karboniteAt = new long[w][h];
-		karboniteLocations = new LinkedList<MapLocation>();
-		for (int x = 0; x<map.getWidth(); x++) {
-			for (int y=0; y<map.getHeight(); y++) {
-				MapLocation m = mc.loc(x, y);
-				karboniteAt[x][y] = map.initialKarboniteAt(m);
-				remaining += karboniteAt[x][y];
-				if (karboniteAt[x][y] > 0) {
-					karboniteLocations.add(m);
-					turnsToMine[mc.zone(x, y)] += (karboniteAt[x][y] + 2) / 3;
-				}   
-			}
-		}
-    	
-		int minWorkers = (karboniteLocations.size() == 0)?3:6;
-		for (int z=0; z<zones; z++) {
-	    	maxWorkers[z] = Math.max(minWorkers, turnsToMine[z] / 100);
+		karboniteLocations = new IntList();
+		position = new int[w*h];
+		Arrays.fill(position, -1);
+		groupTiles = new TileSet[GROUPS];
+		for (int i=0; i<GROUPS; i++)
+			groupTiles[i] = new TileSet(w, h);
+		for (int x = 0; x<w; x++) {
+			for (int y=0; y<h; y++)
+				set(x, y, map.initialKarboniteAt(mc.loc(x, y)));
 		}
+		updateWorkers();
 	}
-	
+
 	public long karboniteAt(int x, int y) {
 		return karboniteAt[x][y];
 	}
-	
+
 	public long karboniteAt(MapLocation k) {
 		return karboniteAt[k.getX()][k.getY()];
 	}
-	
-	public LinkedList<MapLocation> locations() {
+
+	public IntList locations() {
 		return karboniteLocations;
 	}
-	
+
 	public int maxWorkers(int zone) {
 		return maxWorkers[zone];
 	}
-	
+
 	public int remaining() {
-		return remaining;
+		return (int)remaining;
+	}
+
+	public long remaining(int zone) {
+		return zoneRemaining[zone];
 	}
 	
 	/*
-	 * Update all currently known karbonite values
+	 * The deposits in a group (see GROUPS) - shared so must not be modified
 	 */
-	public void update(MapState ms) {
-		int zones = maxWorkers.length;
-		int[] turnsToMine = new int[zones];
-		remaining = 0;
-		
-		for (Iterator<MapLocation> iterator = karboniteLocations.iterator(); iterator.hasNext();) {
-    	    MapLocation m = iterator.next();   	    
-    		if (ms.visible(m.getX(), m.getY())) {
-    			long k = gc.karboniteAt(m);
-    			if (k == 0)
-    				iterator.remove();
-    			karboniteAt[m.getX()][m.getY()] = k;   			
-    		}
-    		turnsToMine[mapCache.zone(m)] += ((karboniteAt[m.getX()][m.getY()] + 2) / 3);
-    		remaining += karboniteAt[m.getX()][m.getY()];
-    	}	
-    	
+	public TileSet deposits(int group) {
+		return groupTiles[group];
+	}
+	
+	private static int group(long k) {
+		return (int)Math.min(GROUPS-1, k / 10);
+	}
+
+	/*
+	 * Bring the known karbonite values up to date
+	 * Deposits that have just come into view may have been mined while we couldn't see them
+	 * Visible deposits within reach of an enemy worker (its harvest range plus the move it may have made first - 2 tiles) may have
+	 * just been mined. The worker may be one we can see, one we saw last round that has since left our sight or one we have
+	 * never seen standing on a tile we can't see, so we look within reach of all of those.
+	 */
+	public void update(MapState ms, UnitCache units, Team enemy) {
+		TileSet newlyVisible = ms.newlyVisible();
+		for (int t = newlyVisible.nextSetBit(0); t >= 0; t = newlyVisible.nextSetBit(t+1)) {
+			if (position[t] >= 0)
+				refresh(mapCache.x(t), mapCache.y(t));
+		}
+
+		TileSet workers = units.tilesOf(enemy, UnitType.Worker);
+		watch.copy(mapCache.passableTiles());
+		watch.andNot(ms.visibleTiles());
+		watch.or(workers);
+		watch.or(lastWorkers);
+		nearWorkers.expand(watch);
+		watch.expand(nearWorkers);
+		watch.and(ms.visibleTiles());
+		watch.andNot(newlyVisible); //Already done
+		for (int t = watch.nextSetBit(0); t >= 0; t = watch.nextSetBit(t+1)) {
+			if (position[t] >= 0)
+				refresh(mapCache.x(t), mapCache.y(t));
+		}
+		lastWorkers.copy(workers);
+
     	if (gc.planet() == Planet.Mars) {
     		long currentRound = gc.round();
-    		if (gc.asteroidPattern().hasAsteroid(currentRound)) {
-    			MapLocation strike = gc.asteroidPattern().asteroid(currentRound).getLocation();
-    			karboniteLocations.add(strike);
-    			long k = gc.asteroidPattern().asteroid(currentRound).getKarbonite();
-    			int x = strike.getX(), y = strike.getY();
-    			karboniteAt[x][y] += k;
-    			turnsToMine[mapCache.zone(strike)] += ((k + 2) / 3);
-    			remaining += k;
+    		if (schedule.hasAsteroid(currentRound)) {
+    			int x = Loc.x(schedule.asteroidAt(currentRound)), y = Loc.y(schedule.asteroidAt(currentRound));
+    			set(x, y, karboniteAt[x][y] + schedule.asteroidKarbonite(currentRound));
     		}
     	}
-    	
-    	int minWorkers = (karboniteLocations.size() == 0)?3:6;
-    	for (int z=0; z<zones; z++) {
-	    	maxWorkers[z] = Math.max(minWorkers, turnsToMine[z] / 100);
+
+    	updateWorkers();
+	}
+
+	/*
+	 * Our worker has mined the given amount at x,y
+	 */
+	public void harvest(int x, int y, int amount) {
+		set(x, y, Math.max(0, karboniteAt[x][y] - amount));
+	}
+
+	private void refresh(int x, int y) {
+		set(x, y, gc.karboniteAt(mapCache.loc(x, y)));
+	}
+
+	/*
+	 * Change the karbonite at a tile and adjust the totals and the list of deposits to match
+	 */
+	private void set(int x, int y, long k) {
+		long old = karboniteAt[x][y];
+		if (k == old)
+			return;
+
+		int zone = mapCache.zone(x, y);
+		karboniteAt[x][y] = k;
+		remaining += k - old;
+		zoneRemaining[zone] += k - old;
+		turnsToMine[zone] += (k + 2) / 3 - (old + 2) / 3;
+
+		int tile = mapCache.tile(x, y);
+		if (old == 0 || k == 0 || group(old) != group(k)) {
+			if (old > 0)
+				groupTiles[group(old)].clear(tile);
+			if (k > 0)
+				groupTiles[group(k)].set(tile);
+		}
+		
+		if (old == 0) {
+			position[tile] = karboniteLocations.size();
+			karboniteLocations.add(mapCache.packed(tile));
+		} else if (k == 0) { //The last deposit takes its place in the list
+			int i = position[tile];
+			karboniteLocations.removeAt(i);
+			if (i < karboniteLocations.size())
+				position[mapCache.tileOf(karboniteLocations.get(i))] = i;
+			position[tile] = -1;
 		}
 	}
-	
-	public void harvest(MapLocation here, Unit u) {
-		karboniteAt[here.getX()][here.getY()] -= u.workerHarvestAmount();
-		if (karboniteAt[here.getX()][here.getY()] < 0)
-			karboniteAt[here.getX()][here.getY()] = 0;
+
+	private void updateWorkers() {
+		int minWorkers = (karboniteLocations.size() == 0)?3:6;
+		for (int z=0; z<maxWorkers.length; z++) {
+	    	maxWorkers[z] = Math.max(minWorkers, (int)(turnsToMine[z] / 100));
+		}
 	}
 }
@@ -0,0 +1,222 @@
+import java.util.Arrays;
+
+import bc.*;
+
+/*
+ * Ripples that are only worked out at the tiles that are actually read
+ *
+ * A unit only ever looks at the gravity of its own tile and its neighbours, so when only a handful of units are going to move
+ * a whole map search is mostly wasted. Instead each ripple is recorded as a job on its gravity maps (see GravityMap.defer)
+ * and a tile's score is found when it is read - its walking distance to the nearest source comes from the DistanceOracle
+ * and the distance the ripple would have stopped at comes from the distances of our matching units when it was recorded.
+ * Scores are kept until the maps are reset so a tile is only worked out once per round.
+ *
+ * This only gives the ripple result when the oracle has exact distances for the whole map and no source already holds a unit
+ * that stops the ripple (those block the search - see FusedRipple), otherwise the ripple is run at once through the DistanceCache.
+ *
+ * Each oracle lookup is cheap but a job costs one per source for every matching unit (to find the cut-off) and for every tile
+ * read, so a job is only deferred if sources * (matching units + tiles read) is less than the passable tiles a search would visit.
+ */
+public class LazyGravity {
+	private MapCache map;
+	private UnitCache units;
+	private Team team; //Whose units stop the ripples
+	private DistanceOracle oracle;
+	private DistanceCache fallback; //Runs the ripples we can't defer
+
+	private TileSet pending; //Sources added for the next ripple
+	private int searchCost; //Passable tiles - what running a ripple at once costs
+	private int reads = 0; //Tiles we expect to be read this round
+	private int[] hist; //Scratch - indexed by distance - our matching units that far away
+
+	/*
+	 * The jobs recorded since the last clear - indexed by job number
+	 * The sources of job j are sources[sourceStart[j]] up to sources[sourceStart[j+1]]
+	 */
+	private int jobs = 0;
+	private IntList sources = new IntList();
+	private IntList sourceStart = new IntList();
+	private int[] limits = new int[16]; //The furthest layer scored
+	private int[] max = new int[16];
+	private int[] stop = new int[16];
+	private float[] points = new float[16];
+	private UnitType[] match = new UnitType[16];
+	private boolean[] ignoreWorkers = new boolean[16];
+
+	public LazyGravity(MapCache mc, UnitCache uc, Team myTeam, DistanceOracle o, DistanceCache d) {
+		map = mc;
+		units = uc;
+		team = myTeam;
+		oracle = o;
+		fallback = d;
+		pending = new TileSet(mc.width(), mc.height());
+		searchCost = mc.passableTiles().cardinality();
+		hist = new int[mc.tiles()+1];
+		sourceStart.add(0);
+	}
+
+	/*
+	 * Drop all the jobs - the maps they were deferred to must be reset too
+	 */
+	public void clear() {
+		jobs = 0;
+		sources.clear();
+		sourceStart.clear();
+		sourceStart.add(0);
+	}
+
+	/*
+	 * How many units will read the deferred maps this round - each looks at its own tile and its 8 neighbours
+	 */
+	public void setReaders(int readers) {
+		reads = readers * 9;
+	}
+
+	/*
+	 * Add a starting tile for the next ripple - impassable tiles and duplicates are ignored
+	 */
+	public void addSource(int tile) {
+		if (map.passable(tile))
+			pending.set(tile);
+	}
+
+	public void addSource(MapLocation m) {
+		addSource(map.tile(m));
+	}
+
+	public void addDisk(int cx, int cy, MapCache.Disk disk) {
+		for (int i=0; i<disk.size; i++) {
+			int x = cx + disk.dx[i], y = cy + disk.dy[i];
+			if (map.onMap(x, y))
+				addSource(map.tile(x, y));
+		}
+	}
+
+	/*
+	 * Record a ripple from the sources added since the last call - the arguments are the same as FusedRipple.addJob
+	 */
+	public void ripple(GravityMap[] maps, float value, UnitType matchType, boolean noWorkers, int maxMatches, int stopDistance) {
+		if (!deferrable(matchType, noWorkers)) {
+			for (int t = pending.nextSetBit(0); t >= 0; t = pending.nextSetBit(t+1))
+				fallback.addSource(t);
+			pending.clear();
+			fallback.ripple(maps, value, matchType, noWorkers, maxMatches, stopDistance);
+			return;
+		}
+
+		for (int t = pending.nextSetBit(0); t >= 0; t = pending.nextSetBit(t+1))
+			sources.add(t);
+		pending.clear();
+		if (sources.size() == sourceStart.get(jobs))
+			return; //No sources - nothing to score
+		sourceStart.add(sources.size());
+		if (jobs == match.length) {
+			limits = Arrays.copyOf(limits, 2*jobs);
+			max = Arrays.copyOf(max, 2*jobs);
+			stop = Arrays.copyOf(stop, 2*jobs);
+			points = Arrays.copyOf(points, 2*jobs);
+			match = Arrays.copyOf(match, 2*jobs);
+			ignoreWorkers = Arrays.copyOf(ignoreWorkers, 2*jobs);
+		}
+		max[jobs] = maxMatches;
+		stop[jobs] = stopDistance;
+		points[jobs] = value;
+		match[jobs] = matchType;
+		ignoreWorkers[jobs] = noWorkers;
+		limits[jobs] = limit(jobs);
+		for (GravityMap target: maps)
+			target.defer(this, jobs);
+		jobs++;
+	}
+
+	public void ripple(GravityMap map, float value, UnitType matchType, int maxMatches, int stopDistance) {
+		ripple(new GravityMap[] { map }, value, matchType, false, maxMatches, stopDistance);
+	}
+
+	/*
+	 * True if the pending sources can be deferred exactly and for less than running the ripple now
+	 */
+	private boolean deferrable(UnitType matchType, boolean noWorkers) {
+		if (!oracle.complete())
+			return false;
+		
+		int count = 0;
+		for (int t = pending.nextSetBit(0); t >= 0; t = pending.nextSetBit(t+1)) {
+			if (matchType != null && units.isMatch(t, team, matchType, noWorkers))
+				return false;
+			count++;
+		}
+		
+		long cost = (long)count * (matchingUnits(matchType, noWorkers) + reads);
+		return cost < searchCost;
+	}
+
+	/*
+	 * How many of our units on the map the ripple would stop at
+	 */
+	private int matchingUnits(UnitType matchType, boolean noWorkers) {
+		int count = 0;
+		for (int slot=0; slot<units.slots(); slot++) {
+			if (units.team(slot) == team && units.onMap(slot) &&
+					units.isMatch(map.tile(units.x(slot), units.y(slot)), team, matchType, noWorkers))
+				count++;
+		}
+		return count;
+	}
+
+	/*
+	 * The score a job gives a tile
+	 */
+	public float score(int job, int tile) {
+		int d = distance(job, tile);
+		if (d == DistanceOracle.UNREACHABLE || d > limits[job])
+			return 0;
+		return points[job] * GravityMap.falloff(d+1);
+	}
+
+	/*
+	 * Walking distance from the nearest source of a job
+	 */
+	private int distance(int job, int tile) {
+		int best = DistanceOracle.UNREACHABLE;
+		for (int i=sourceStart.get(job); i<sourceStart.get(job+1); i++) {
+			int d = oracle.distance(sources.get(i), tile);
+			if (d != DistanceOracle.UNREACHABLE && (best == DistanceOracle.UNREACHABLE || d < best))
+				best = d;
+		}
+		return best;
+	}
+
+	/*
+	 * The furthest layer the ripple scores - it stops once the layers so far hold max of our matching units
+	 */
+	private int limit(int job) {
+		int furthest = 0;
+		for (int slot=0; slot<units.slots(); slot++) {
+			if (units.team(slot) != team || !units.onMap(slot))
+				continue;
+			int tile = map.tile(units.x(slot), units.y(slot));
+			if (!units.isMatch(tile, team, match[job], ignoreWorkers[job]))
+				continue;
+			int d = distance(job, tile);
+			if (d != DistanceOracle.UNREACHABLE) {
+				hist[d]++;
+				furthest = Math.max(furthest, d);
+			}
+		}
+
+		int limit = Integer.MAX_VALUE, matches = hist[0];
+		for (int d=1; d<=Math.max(1, furthest); d++) {
+			matches += hist[d];
+			if (matches >= max[job]) {
+				limit = d-1;
+				break;
+			}
+		}
+		for (int d=0; d<=furthest; d++)
+			hist[d] = 0;
+		if (stop[job] > 0)
+			limit = Math.min(limit, stop[job]-2);
+		return limit;
+	}
+}
@@ -0,0 +1,84 @@
+import bc.*;
+
+/*
+ * A map location packed into a single int so lists of locations can be held in plain int arrays (see IntList)
+ * and location arithmetic never has to go through the engine
+ *
+ * Bits 0-7 hold y, bits 8-15 hold x and bit 16 the planet - maps are never bigger than 50x50
+ * A bc.MapLocation is only made when we have to hand one to the GameController (see MapCache.loc and toMapLocation)
+ */
+public class Loc {
+	public static final int		NONE = -1; //Not a location - e.g. adding a direction took us below 0
+	public static final int[]	DX = { 0, 1, 1, 1, 0, -1, -1, -1, 0 }; //Indexed by Direction ordinal - North is +y
+	public static final int[]	DY = { 1, 1, 0, -1, -1, -1, 0, 1, 0 };
+
+	private static final Planet[]		PLANETS = Planet.values();
+	private static final Direction[]	DIRECTIONS = Direction.values();
+	private static final Direction[]	BY_OFFSET = new Direction[9]; //Indexed by (dx+1)*3 + dy+1
+
+	static {
+		for (Direction d: DIRECTIONS)
+			BY_OFFSET[(DX[d.ordinal()]+1)*3 + DY[d.ordinal()]+1] = d;
+	}
+
+	public static int pack(Planet p, int x, int y) {
+		return (p.ordinal() << 16) | (x << 8) | y;
+	}
+
+	public static int of(MapLocation m) {
+		return pack(m.getPlanet(), m.getX(), m.getY());
+	}
+
+	public static int x(int loc) {
+		return (loc >> 8) & 0xFF;
+	}
+
+	public static int y(int loc) {
+		return loc & 0xFF;
+	}
+
+	public static Planet planet(int loc) {
+		return PLANETS[loc >> 16];
+	}
+
+	/*
+	 * The location one step in direction d - NONE if x or y would be negative
+	 * Callers still need to check the result is on their map
+	 */
+	public static int add(int loc, Direction d) {
+		int x = x(loc) + DX[d.ordinal()], y = y(loc) + DY[d.ordinal()];
+		if (x < 0 || y < 0)
+			return NONE;
+		return (loc & ~0xFFFF) | (x << 8) | y;
+	}
+
+	/*
+	 * The nearest of the 8 compass directions from one location to another (Center if they are the same)
+	 * A component is only included if it is at least tan(22.5) of the other so the result is the closest 45 degree step
+	 * tan(22.5) is sqrt(2)-1 so ax >= tan(22.5)*ay is tested exactly in integers as (ax+ay)^2 >= 2*ay^2
+	 */
+	public static Direction directionTo(int from, int to) {
+		return direction(x(to) - x(from), y(to) - y(from));
+	}
+
+	public static Direction direction(int dx, int dy) {
+		int ax = Math.abs(dx), ay = Math.abs(dy);
+		int sum = (ax+ay)*(ax+ay);
+		int sx = (sum >= 2*ay*ay)?Integer.signum(dx):0;
+		int sy = (sum >= 2*ax*ax)?Integer.signum(dy):0;
+		return BY_OFFSET[(sx+1)*3 + sy+1];
+	}
+
+	public static int distanceSquared(int a, int b) {
+		int dx = x(a) - x(b), dy = y(a) - y(b);
+		return dx*dx + dy*dy;
+	}
+
+	/*
+	 * A new engine location - the caller owns it (add it to the round's Handles if it is not kept)
+	 * For tiles on our own planet use the cached MapCache.loc instead
+	 */
+	public static MapLocation toMapLocation(int loc) {
+		return new MapLocation(planet(loc), x(loc), y(loc));
+	}
+}
@@ -1,33 +1,76 @@
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 
 import bc.*;
 
 public class MapAnalyser {
 	public ArrayList<MapZone>	zones;	//The distinct zones found on the map
-	private PlanetMap			map; //The map being analysed
 	private short[][]			zoneArray; //Indexed by x,y coords - contains the zoneId of the location
-	
-	public MapAnalyser(GameController gc, PlanetMap pm, MapCache info) {
-		map = pm;
-		
+
+	public MapAnalyser(PlanetMap pm, MapCache info, Schedule schedule) {
+		Planet planet = pm.getPlanet();
+		int w = (int) pm.getWidth(), h = (int) pm.getHeight();
+
 		/*
-		 * We scan for zones in the map using a flood search (BFS) and mark each one with a unique id
+		 * Read the terrain from the engine once - if we have a MapCache for this planet it has already read the passability
 		 */
-		short currentZone = 1;
-		zoneArray = new short[(int) map.getWidth()][(int) map.getHeight()];
-		
-		for (int x=0; x<map.getWidth(); x++) {
-			for (int y=0; y<map.getHeight(); y++) {
-				MapLocation here = getLocation(info, x, y);
-				if (map.isPassableTerrainAt(here) > 0 && zoneArray[x][y] == 0) {
-					flood(here, zoneArray, currentZone);
-					currentZone++;
+		TileSet passable;
+		long[] karbonite = new long[w*h]; //Indexed by tile (x*h + y)
+		if (info != null) {
+			passable = info.passableTiles();
+			for (int t=passable.nextSetBit(0); t>=0; t=passable.nextSetBit(t+1))
+				karbonite[t] = pm.initialKarboniteAt(info.loc(t));
+		} else {
+			passable = new TileSet(w, h);
+			for (int x=0; x<w; x++) {
+				for (int y=0; y<h; y++) {
+					MapLocation here = new MapLocation(planet, x, y);
+					if (pm.isPassableTerrainAt(here) > 0) {
+						passable.set(x*h + y);
+						karbonite[x*h + y] = pm.initialKarboniteAt(here);
+					}
+					here.delete();
+				}
+			}
+		}
+
+		/*
+		 * Join each passable tile to its passable neighbours that we have already scanned (union-find)
+		 * then number the zones in the order we first meet them scanning x then y
+		 */
+		int[] parent = new int[w*h];
+		for (int x=0; x<w; x++) {
+			for (int y=0; y<h; y++) {
+				int t = x*h + y;
+				if (!passable.get(t))
+					continue;
+				parent[t] = t;
+				if (x > 0) {
+					for (int dy=-1; dy<=1; dy++) {
+						if (y+dy >= 0 && y+dy < h && passable.get(t-h+dy))
+							union(parent, t, t-h+dy);
+					}
 				}
+				if (y > 0 && passable.get(t-1))
+					union(parent, t, t-1);
+			}
+		}
+
+		short currentZone = 1;
+		short[] rootZone = new short[w*h]; //Indexed by the root tile of a zone
+		zoneArray = new short[w][h];
+		for (int x=0; x<w; x++) {
+			for (int y=0; y<h; y++) {
+				int t = x*h + y;
+				if (!passable.get(t))
+					continue;
+				int root = find(parent, t);
+				if (rootZone[root] == 0)
+					rootZone[root] = currentZone++;
+				zoneArray[x][y] = rootZone[root];
 			}
 		}
-		
+
 		/*
 		 * Create MapZones to store the results
 		 */
@@ -35,74 +78,63 @@ public class MapAnalyser {
 		for (int i=0; i<currentZone-1; i++) {
 			zones.add(new MapZone(i));
 		}
-		
-		for (int x=0; x<map.getWidth(); x++) {
-			for (int y=0; y<map.getHeight(); y++) {
+
+		for (int x=0; x<w; x++) {
+			for (int y=0; y<h; y++) {
 				if (zoneArray[x][y] > 0) {
-					MapLocation here = getLocation(info, x, y);
 					MapZone zone = zones.get(zoneArray[x][y]-1);
-					zone.tiles.add(here);
-					zone.landingSites.add(here);
-					zone.karbonite += map.initialKarboniteAt(here);
+					int loc = Loc.pack(planet, x, y);
+					zone.tiles.add(loc);
+					zone.landingSites.add(loc);
+					zone.karbonite += karbonite[x*h + y];
 					if (info != null)
 						info.setZone(x, y, zone.id);
 				}
 			}
 		}
-		
+
 		/*
 		 * On Mars we add the asteroids info
-		 */		
-		if (map.getPlanet() == Planet.Mars) {
-			for (int round=1; round<=1000; round++) {
-				if (gc.asteroidPattern().hasAsteroid(round)) {
-					MapLocation where = gc.asteroidPattern().asteroid(round).getLocation();
-					if (map.onMap(where)) {
-						long karbonite = gc.asteroidPattern().asteroid(round).getKarbonite();
-						int zoneID = zoneArray[where.getX()][where.getY()];
+		 */
+		if (planet == Planet.Mars) {
+			for (int round=1; round<=Schedule.ROUNDS; round++) {
+				if (schedule.hasAsteroid(round)) {
+					int x = Loc.x(schedule.asteroidAt(round)), y = Loc.y(schedule.asteroidAt(round));
+					if (x < w && y < h) {
+						int zoneID = zoneArray[x][y];
 						if (zoneID > 0)
-							zones.get(zoneID-1).karbonite += karbonite;
+							zones.get(zoneID-1).karbonite += schedule.asteroidKarbonite(round);
 					}
 				}
 			}
 		}
-		
+
 		/*
 		 * Finally sort the list of zones - putting the best one first
 		 */
 		Collections.sort(zones);
 	}
-	
+
 	public int getZone(MapLocation m) {
 		return zoneArray[m.getX()][m.getY()];
 	}
-	
-	private MapLocation getLocation(MapCache m, int x, int y) {
-		if (m == null)
-			return new MapLocation(map.getPlanet(), x, y);
-		
-		return m.loc(x, y);
-	}
-	
-	private void flood(MapLocation start, short[][] zone, short zoneID) {
-		LinkedList<MapLocation> openList = new LinkedList<MapLocation>();
-		
-		openList.add(start);
-		zone[start.getX()][start.getY()] = zoneID;
-		while (!openList.isEmpty()) {
-			MapLocation here = openList.removeFirst();
-			int x = here.getX(), y = here.getY();
-				
-			//Add all passable neighbours that we haven't seen before
-			for (int i=-1; i<=1; i++) {
-				for (int j=-1; j<=1; j++) {
-					MapLocation next = new MapLocation(map.getPlanet(), x+i, y+j);
-					if (map.onMap(next) && zone[x+i][y+j] == 0 && map.isPassableTerrainAt(next) > 0) {
-						zone[x+i][y+j] = zoneID;
-						openList.addLast(next);
-					}
-				}
-			}
+
+	/*
+	 * Union-find over tiles - the root of a set is always its lowest tile
+	 */
+	private static int find(int[] parent, int t) {
+		while (parent[t] != t) {
+			parent[t] = parent[parent[t]]; //Halve the path as we go
+			t = parent[t];
 		}
+		return t;
+	}
+
+	private static void union(int[] parent, int a, int b) {
+		int ra = find(parent, a), rb = find(parent, b);
+		if (ra < rb)
+			parent[rb] = ra;
+		else if (rb < ra)
+			parent[ra] = rb;
 	}
 }
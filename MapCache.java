@@ -1,5 +1,4 @@
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import bc.*;
 
@@ -10,13 +9,28 @@ public class MapCache {
 	private MapInfo[][]	map;
 	private int w; //map width
 	private int h; //map height
+	private Planet planet;
+	private TileSet passable; //Tiles that are not water
+	
+	/*
+	 * Neighbours are stored in compressed form - the neighbours of tile t are the entries
+	 * neighbourList[neighbourStart[t]] up to (but not including) neighbourList[neighbourStart[t+1]]
+	 * The passable neighbours are stored the same way
+	 */
+	private int[] neighbourStart;
+	private int[] neighbourList;
+	private int[] passableStart;
+	private int[] passableList;
+	
+	private Disk[][] disks = new Disk[1][1]; //Shared offset tables indexed by [min+1][max] - see disk()
 	
 	public MapCache(PlanetMap pm) {
 		w = (int) pm.getWidth();
 		h = (int) pm.getHeight();
 		
 		map = new MapInfo[w][h];
-		Planet planet = pm.getPlanet();
+		passable = new TileSet(w, h);
+		planet = pm.getPlanet();
 		
 		/*
 		 * Create the cache of locations
@@ -24,20 +38,38 @@ public class MapCache {
         for (int x = 0; x<w; x++) {
     		for (int y=0; y<h; y++) {
     			MapLocation m = new MapLocation(planet, x, y);
-    			map[x][y] = new MapInfo(m, (pm.isPassableTerrainAt(m) > 0)); 
+    			map[x][y] = new MapInfo(m);
+    			passable.set(tile(x, y), pm.isPassableTerrainAt(m) > 0);
     		}
 		}
         
         /*
          * Now cache all the neighbours of each location and a subset of that (passable locations) for quick access later
          */
+        int tiles = w*h;
+        neighbourStart = new int[tiles+1];
+        passableStart = new int[tiles+1];
+        int[] all = new int[tiles*8];
+        int[] open = new int[tiles*8];
+        int allCount = 0, openCount = 0;
+        int[] found = new int[8];
     	for (int x = 0; x<w; x++) {
     		for (int y=0; y<h; y++) {
-    			MapLocation here = map[x][y].here;
-    			map[x][y].neighbours = allNeighboursOf(here);
-    			map[x][y].passableNeighbours = allPassableNeighbours(here);   						
+    			int t = tile(x, y);
+    			neighbourStart[t] = allCount;
+    			passableStart[t] = openCount;
+    			int n = allNeighboursOf(x, y, found);
+    			for (int i=0; i<n; i++) {
+    				all[allCount++] = found[i];
+    				if (passable(found[i]))
+    					open[openCount++] = found[i];
+    			}
     		}
-    	}        
+    	}
+    	neighbourStart[tiles] = allCount;
+    	passableStart[tiles] = openCount;
+    	neighbourList = Arrays.copyOf(all, allCount);
+    	passableList = Arrays.copyOf(open, openCount);
 	}
 
 	public int width() {
@@ -48,32 +80,119 @@ public class MapCache {
 		return h;
 	}
 	
+	/*
+	 * Every location has a unique tile index in the range 0 to tiles()-1
+	 * Tiles in the same column (x) are adjacent so the index matches the layout of our [x][y] arrays
+	 */
+	public int tiles() {
+		return w*h;
+	}
+	
+	public int tile(int x, int y) {
+		return x*h + y;
+	}
+	
+	public int tile(MapLocation m) {
+		return m.getX()*h + m.getY();
+	}
+	
+	public int x(int tile) {
+		return tile / h;
+	}
+	
+	public int y(int tile) {
+		return tile % h;
+	}
+	
 	public MapLocation loc(int x, int y) {
 		return map[x][y].here;
 	}
 	
-	public LinkedList<MapLocation> neighbours(int x, int y) {
-		return map[x][y].neighbours;
+	public MapLocation loc(int tile) {
+		return map[tile / h][tile % h].here;
+	}
+	
+	/*
+	 * Convert between tiles on this map and packed locations (see Loc)
+	 */
+	public int packed(int tile) {
+		return Loc.pack(planet, tile / h, tile % h);
+	}
+	
+	public int tileOf(int loc) {
+		return Loc.x(loc)*h + Loc.y(loc);
+	}
+	
+	/*
+	 * Location arithmetic on our cached locations without asking the engine
+	 * add returns null if the step goes off the map
+	 */
+	public MapLocation add(MapLocation m, Direction d) {
+		int x = m.getX() + Loc.DX[d.ordinal()], y = m.getY() + Loc.DY[d.ordinal()];
+		return onMap(x, y)?loc(x, y):null;
+	}
+	
+	public Direction directionTo(MapLocation from, MapLocation to) {
+		return Loc.direction(to.getX() - from.getX(), to.getY() - from.getY());
+	}
+	
+	public Direction directionTo(int fromTile, int toTile) {
+		return Loc.direction(x(toTile) - x(fromTile), y(toTile) - y(fromTile));
+	}
+	
+	public int distanceSquared(MapLocation a, MapLocation b) {
+		int dx = a.getX() - b.getX(), dy = a.getY() - b.getY();
+		return dx*dx + dy*dy;
+	}
+	
+	/*
+	 * Loop over the neighbours of a tile with
+	 * for (int i=firstNeighbour(t); i<endNeighbour(t); i++) { int n = neighbour(i); ... }
+	 */
+	public int firstNeighbour(int tile) {
+		return neighbourStart[tile];
 	}
 	
-	public LinkedList<MapLocation> neighbours(MapLocation m) {
-		return map[m.getX()][m.getY()].neighbours;
+	public int endNeighbour(int tile) {
+		return neighbourStart[tile+1];
 	}
 	
-	public LinkedList<MapLocation> passableNeighbours(int x, int y) {
-		return map[x][y].passableNeighbours;
+	public int neighbour(int i) {
+		return neighbourList[i];
 	}
 	
-	public LinkedList<MapLocation> passableNeighbours(MapLocation m) {
-		return map[m.getX()][m.getY()].passableNeighbours;
+	/*
+	 * As above but only the passable neighbours
+	 */
+	public int firstPassableNeighbour(int tile) {
+		return passableStart[tile];
+	}
+	
+	public int endPassableNeighbour(int tile) {
+		return passableStart[tile+1];
+	}
+	
+	public int passableNeighbour(int i) {
+		return passableList[i];
 	}
 	
 	public boolean passable(int x, int y) {
-		return map[x][y].passable;
+		return passable.get(tile(x, y));
 	}
 	
 	public boolean passable(MapLocation m) {
-		return map[m.getX()][m.getY()].passable;
+		return passable.get(tile(m));
+	}
+	
+	public boolean passable(int tile) {
+		return passable.get(tile);
+	}
+	
+	/*
+	 * All the passable tiles - shared so must not be modified
+	 */
+	public TileSet passableTiles() {
+		return passable;
 	}
 	
 	public int zone(int x, int y) {
@@ -92,176 +211,108 @@ public class MapCache {
 		map[m.getX()][m.getY()].zone = z;
 	}
 	
-  	private LinkedList<MapLocation> allNeighboursOf(MapLocation centre) {
-    	LinkedList<MapLocation> result = new LinkedList<MapLocation>();
-    	int cx = centre.getX(), cy = centre.getY();
+    /*
+     * Fills result with the tile indices of all the neighbours of x,y that are on the map
+     * Returns the number found
+     * 
+     * Only called by the constructor to create and cache the results for each location on the map
+     */
+  	private int allNeighboursOf(int cx, int cy, int[] result) {
+  		int n = 0;
 
     	if (cx > 0) {
-    		result.add(map[cx-1][cy].here);
+    		result[n++] = tile(cx-1, cy);
     		if (cy > 0)
-    			result.add(map[cx-1][cy-1].here);
+    			result[n++] = tile(cx-1, cy-1);
     		if (cy+1 < h)
-    			result.add(map[cx-1][cy+1].here);
+    			result[n++] = tile(cx-1, cy+1);
     	}
     	if (cy > 0)
-			result.add(map[cx][cy-1].here);
+			result[n++] = tile(cx, cy-1);
 		if (cy+1 < h)
-			result.add(map[cx][cy+1].here);
+			result[n++] = tile(cx, cy+1);
 		
 		if (cx+1 < w) {
-			result.add(map[cx+1][cy].here);
+			result[n++] = tile(cx+1, cy);
     		if (cy > 0)
-    			result.add(map[cx+1][cy-1].here);
+    			result[n++] = tile(cx+1, cy-1);
     		if (cy+1 < h)
-    			result.add(map[cx+1][cy+1].here);
+    			result[n++] = tile(cx+1, cy+1);
 		}
-		return result;
+		return n;
     }
-    
+
     /*
-     * Returns an array containing all the passable neighbours of a map location
-     * Passable means on the map and not water
+     * Returns the table of offsets to all tiles whose squared distance d from a centre satisfies min < d <= max
+     * A min of -1 includes the centre itself
+     * 
+     * The tables don't depend on the centre so they are built once per (min, max) and shared by every tile.
+     * Offsets can land off the map so they must be clipped as they are used:
      * 
-     * Only called by MapInfo to create and cache the results for each location on the map
+     * Disk disk = map.disk(min, max);
+     * for (int i=0; i<disk.size; i++) {
+     *     int x = cx + disk.dx[i], y = cy + disk.dy[i];
+     *     if (map.onMap(x, y)) ...
+     * }
      */
-    private LinkedList<MapLocation> allPassableNeighbours(MapLocation l) {
-    	LinkedList<MapLocation> result = new LinkedList<MapLocation>();
-    	for (MapLocation test:map[l.getX()][l.getY()].neighbours) {
-    		if (map[test.getX()][test.getY()].passable)
-    			result.add(test);
-		}
-    	
-    	return result;
-    }
-
-    public LinkedList<MapLocation> allLocationsWithin(MapLocation centre, long min, long max) {
-    	LinkedList<MapLocation> result = new LinkedList<MapLocation>();
-    	int cx = centre.getX(), cy = centre.getY();
-    	Range r = new Range((int)min, (int)max);
-    	
-    	if (map[cx][cy].cache.containsKey(r)) {
-    		return map[cx][cy].cache.get(r);
+    public Disk disk(long min, long max) {
+    	int lo = (int)min + 1, hi = (int)max;
+    	if (lo >= disks.length || hi >= disks[0].length) { //Grow the table to fit
+    		Disk[][] bigger = new Disk[Math.max(lo+1, disks.length)][Math.max(hi+1, disks[0].length)];
+    		for (int i=0; i<disks.length; i++)
+    			System.arraycopy(disks[i], 0, bigger[i], 0, disks[i].length);
+    		disks = bigger;
     	}
     	
-    	if (min < 0)
-    		result.add(centre);
+    	if (disks[lo][hi] == null)
+    		disks[lo][hi] = new Disk((int)min, hi);
     	
-    	//The tiles in the resultant circle will be 4 way symmetric along the diagonals and vertices
-    	//and 8 way symmetric in other areas
-
-    	//First the horizontal/vertical
-    	for (int x=1; x*x<=max; x++) {
-    		if (x*x <= min)
-    			continue;
-    		if (cx+x < w)
-				result.add(map[cx+x][cy].here);
-			if (cy+x < h)
-				result.add(map[cx][cy+x].here);
-			if (cx-x >= 0)
-				result.add(map[cx-x][cy].here);
-			if (cy-x >= 0)
-				result.add(map[cx][cy-x].here);
-    	}
-    	
-    	//Now the diagonals
-    	for (int x=1; 2*x*x<=max; x++) {
-    		if (2*x*x <= min)
-    			continue;
-    		if (cx+x < w) {
-    			if (cy+x < h)
-    				result.add(map[cx+x][cy+x].here);
-    			if (cy-x >= 0)
-    				result.add(map[cx+x][cy-x].here);
-    		}
-			if (cx-x >= 0) {
-				if (cy+x < h)
-					result.add(map[cx-x][cy+x].here);
-				if (cy-x >= 0)
-					result.add(map[cx-x][cy-x].here);
-			}
-    	}
+    	return disks[lo][hi];
+    }
+    
+    public boolean onMap(int x, int y) {
+    	return (x >= 0 && y >= 0 && x < w && y < h);
+    }
+    
+    /*
+     * The relative offsets of all tiles in a ring around a centre, nearest first
+     */
+    public static class Disk {
+    	public final int	size;
+    	public final int[]	dx;
+    	public final int[]	dy;
     	
-    	//Finally the 8 way symmetry
-    	for (int x=2; x*x+1<=max; x++) {
-    		if (x*x+1 <= min)
-    			continue;
-    		for (int y=1; y<x && x*x+y*y<=max; y++) {
-    			if (x*x+y*x<=min)
-    				continue;
-				if (cx+x < w) {
-					if (cy+y < h)
-						result.add(map[cx+x][cy+y].here);
-					if (cy-y >= 0)
-						result.add(map[cx+x][cy-y].here);
-				}
-				if (cx-y >= 0) {
-					if (cy+x < h)
-						result.add(map[cx-y][cy+x].here);
-					if (cy-x >= 0)
-						result.add(map[cx-y][cy-x].here);
-				}
-				if (cx-x >= 0) {
-					if (cy-y >= 0)
-						result.add(map[cx-x][cy-y].here);
-					if (cy+y < h)
-						result.add(map[cx-x][cy+y].here);
-				}
-				if (cx+y < w) {
-					if (cy-x >= 0)
-						result.add(map[cx+y][cy-x].here);				
-					if (cy+x < h)
-						result.add(map[cx+y][cy+x].here);
-				}
+    	private Disk(int min, int max) {
+    		int r = (int)Math.sqrt(max);
+    		int[] ox = new int[(2*r+1)*(2*r+1)];
+    		int[] oy = new int[ox.length];
+    		int n = 0;
+    		
+    		for (int d=Math.max(0, min+1); d<=max; d++) { //Order by distance so nearer tiles are visited first
+    			for (int x=-r; x<=r; x++) {
+    				for (int y=-r; y<=r; y++) {
+    					if (x*x + y*y == d) {
+    						ox[n] = x;
+    						oy[n] = y;
+    						n++;
+    					}
+    				}
+    			}
     		}
+    		
+    		size = n;
+    		dx = Arrays.copyOf(ox, n);
+    		dy = Arrays.copyOf(oy, n);
     	}
-    	
-    	map[cx][cy].cache.put(r, result);
-    	
-    	return result;
     }
     
     private class MapInfo {
     	public MapLocation 				here;
-    	public boolean					passable;
     	public int						zone; //The zone number we are part of
     	
-    	public LinkedList<MapLocation>	neighbours;
-    	public LinkedList<MapLocation>	passableNeighbours;
-    	public HashMap<Range, LinkedList<MapLocation>>	cache;
-    	
-    	public MapInfo(MapLocation mapLocation, boolean p) {
+    	public MapInfo(MapLocation mapLocation) {
     		here = mapLocation;
-    		passable = p;
-    		neighbours = null;
-    		passableNeighbours = null;
     		zone = 0;
-    		cache = new HashMap<Range, LinkedList<MapLocation>>();
-    	}
-    }
-    
-    private class Range {
-    	private int min;
-    	private int max;
-    	
-    	public Range(int a, int b) {
-    		min = a;
-    		max = b;
-    	}
-    	
-    	@Override
-    	public int hashCode() {
-    		return min+max*100; 		
-    	}
-    	
-    	@Override
-    	public boolean equals(Object other) {
-    		if (other == this)
-    			return true;
-    		if (other == null)
-    			return false;
-    		
-    		Range r = (Range)other;
-    		return (r.min == min && r.max == max);
     	}
     }
 }
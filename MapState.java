@@ -1,62 +1,196 @@
 import java.util.Arrays;
-import java.util.LinkedList;
 
 import bc.*;
 
 /*
  * MapState holds the current state of the map, the parts that change each turn such as
- * - Whether a location is visible
+ * - Whether a location is visible (as a TileSet so whole layers can be combined at once)
+ *   This is tracked incrementally - each tile keeps a count of our units that can see it and only units
+ *   that have moved, arrived or gone since last round change the counts
  * - How dangerous a location is to occupy
- * - The list of locations we want to explore next (i.e. next to a visible location but unseen)
+ * - The set of tiles we want to explore next (i.e. next to a visible location but unseen)
+ *   This is kept up to date from the visibility changes each round rather than rebuilt
  */
 public class MapState {
-	 private int[][] danger; //Array (x,y) of map locations and how much damage a unit would take there
-	 private boolean[][] visible; //Array (x,y) of map locations: true we can see (sense) it
-	 private LinkedList<MapLocation> exploreZone = new LinkedList<MapLocation>(); //All locs that are passable and not visible but next to a visible location
+	 private DangerField danger; //How much damage a unit would take on each tile
+	 private TileSet visible; //Tiles we can see (sense)
+	 private TileSet previous; //Tiles we could see last round
+	 private TileSet newlyVisible; //Tiles that became visible this round
+	 private TileSet newlyHidden; //Tiles that we could see last round but can't now
+	 private int[] observers; //Indexed by tile - how many of our units can see it
+	 private IndexedTileSet exploreZone; //All tiles that are passable and not visible but next to a passable visible tile
+	 private int unseen; //Number of passable tiles we can't see
 	 private int width;
 	 private int height;
 	 private MapCache map;
 	 private boolean explored; //Set to true if there are no locations that are passable and not visible
 	 
+	 /*
+	  * Details of each of our units that is contributing to the visibility
+	  * Indexed by slot - the slot for a unit is found from its id using observerSlot
+	  */
+	 private IntMap observerSlot = new IntMap(256);
+	 private int[] observerId = new int[0];
+	 private int[] observerTile = new int[0];
+	 private int[] observerRange = new int[0];
+	 private int[] observerRound = new int[0]; //The visibility round we last saw this unit - -1 if the slot is free
+	 private int slots = 0; //Number of slots in use (including free ones below the highest used)
+	 private int visibilityRound = 0;
+	 
 	 public MapState(MapCache mc) {
 		 map = mc;		 
 		 width = mc.width();
 		 height = mc.height();
 		 explored = false;
-		 danger = new int[width][height];
-		 visible = new boolean[width][height];
+		 danger = new DangerField(mc);
+		 visible = new TileSet(width, height);
+		 previous = new TileSet(width, height);
+		 newlyVisible = new TileSet(width, height);
+		 newlyHidden = new TileSet(width, height);
+		 observers = new int[width*height];
+		 exploreZone = new IndexedTileSet(width*height);
+		 unseen = map.passableTiles().cardinality();
 	 }
 	 
+	 /*
+	  * Clear the per turn state - visibility is kept as it is updated incrementally
+	  */
 	 public void clear() {
-		 exploreZone.clear();
-		 for (int i=0; i<danger.length; i++) {
-			 Arrays.fill(danger[i], 0);
-			 Arrays.fill(visible[i], false);
-		 }			 
-	 }
-	 
-	 public void addVisibility(LinkedList<MapLocation> within) {
- 		for (MapLocation m: within) {
-			int x = m.getX(), y = m.getY();
-			visible[x][y] = true;	
-		}
-	 }
-	 
-	 public void explore() {
-		 explored = true;	 
-		 for (int x=0; x<width; x++) {
-			for (int y=0; y<height; y++) {  
-				if (!visible[x][y] && map.passable(x, y)) { //Unseen - are we adjacent to a visible location
-					explored = false;
-					for (MapLocation m:map.passableNeighbours(x, y)) {
-						if (visible[m.getX()][m.getY()]) {
-							exploreZone.add(map.loc(x, y));
-							break;
-						}
-					}
-				}
-			}
-		}
+		 danger.clear();
+	 }
+	 
+	 /*
+	  * Visibility is updated once per round by calling
+	  * startVisibility()
+	  * observe(...) for each of our units on the map
+	  * endVisibility()
+	  * Units we don't observe between the start and end (dead, garrisoned or launched) no longer contribute
+	  */
+	 public void startVisibility() {
+		 visibilityRound++;
+		 previous.copy(visible);
+	 }
+	 
+	 public void observe(int id, int cx, int cy, long visionRange) {
+		 int tile = map.tile(cx, cy);
+		 int slot = observerSlot.get(id);
+		 
+		 if (slot < 0) { //A new unit
+			 slot = freeSlot();
+			 observerSlot.put(id, slot);
+			 observerId[slot] = id;
+		 } else if (observerTile[slot] == tile && observerRange[slot] == visionRange) { //Nothing has changed
+			 observerRound[slot] = visibilityRound;
+			 return;
+		 } else //Moved
+			 stamp(observerTile[slot], observerRange[slot], -1);
+		 
+		 observerTile[slot] = tile;
+		 observerRange[slot] = (int)visionRange;
+		 observerRound[slot] = visibilityRound;
+		 stamp(tile, observerRange[slot], 1);
+	 }
+	 
+	 public void endVisibility() {
+		 for (int slot=0; slot<slots; slot++) {
+			 if (observerRound[slot] >= 0 && observerRound[slot] != visibilityRound) { //Gone
+				 stamp(observerTile[slot], observerRange[slot], -1);
+				 observerSlot.remove(observerId[slot]);
+				 observerRound[slot] = -1;
+			 }
+		 }
+		 
+		 newlyVisible.copy(visible);
+		 newlyVisible.andNot(previous);
+		 newlyHidden.copy(previous);
+		 newlyHidden.andNot(visible);
+		 
+		 updateExploreZone();
+	 }
+	 
+	 /*
+	  * The changes made by the last visibility update - shared so must not be modified
+	  */
+	 public TileSet newlyVisible() {
+		 return newlyVisible;
+	 }
+	 
+	 public TileSet newlyHidden() {
+		 return newlyHidden;
+	 }
+	 
+	 /*
+	  * Add delta to the observer count of each tile in the vision range around a tile
+	  */
+	 private void stamp(int centre, int range, int delta) {
+		 MapCache.Disk within = map.disk(-1, range);
+		 int cx = map.x(centre), cy = map.y(centre);
+		 for (int i=0; i<within.size; i++) {
+			 int x = cx + within.dx[i], y = cy + within.dy[i];
+			 if (map.onMap(x, y)) {
+				 int t = map.tile(x, y);
+				 observers[t] += delta;
+				 if (observers[t] == 0)
+					 visible.clear(t);
+				 else if (observers[t] == delta) //Was 0
+					 visible.set(t);
+			 }
+		 }
+	 }
+	 
+	 private int freeSlot() {
+		 for (int slot=0; slot<slots; slot++)
+			 if (observerRound[slot] < 0)
+				 return slot;
+		 
+		 if (slots == observerRound.length) {
+			 int size = Math.max(64, slots*2);
+			 observerId = Arrays.copyOf(observerId, size);
+			 observerTile = Arrays.copyOf(observerTile, size);
+			 observerRange = Arrays.copyOf(observerRange, size);
+			 observerRound = Arrays.copyOf(observerRound, size);
+		 }
+		 return slots++;
+	 }
+	 
+	 /*
+	  * The explore zone is every passable unseen tile that is next to a passable visible tile
+	  * Only tiles whose visibility changed (and their neighbours) can enter or leave it
+	  */
+	 private void updateExploreZone() {
+		 for (int t=newlyVisible.nextSetBit(0); t>=0; t=newlyVisible.nextSetBit(t+1)) {
+			 if (!map.passable(t))
+				 continue;
+			 unseen--;
+			 exploreZone.remove(t);
+			 for (int i=map.firstPassableNeighbour(t); i<map.endPassableNeighbour(t); i++) {
+				 int n = map.passableNeighbour(i);
+				 if (!visible.get(n))
+					 exploreZone.add(n);
+			 }
+		 }
+		 
+		 for (int t=newlyHidden.nextSetBit(0); t>=0; t=newlyHidden.nextSetBit(t+1)) {
+			 if (!map.passable(t))
+				 continue;
+			 unseen++;
+			 if (nextToVisible(t))
+				 exploreZone.add(t);
+			 for (int i=map.firstPassableNeighbour(t); i<map.endPassableNeighbour(t); i++) {
+				 int n = map.passableNeighbour(i);
+				 if (exploreZone.contains(n) && !nextToVisible(n)) //We may have been its only visible neighbour
+					 exploreZone.remove(n);
+			 }
+		 }
+		 
+		 explored = (unseen == 0);
+	 }
+	 
+	 private boolean nextToVisible(int tile) {
+		 for (int i=map.firstPassableNeighbour(tile); i<map.endPassableNeighbour(tile); i++)
+			 if (visible.get(map.passableNeighbour(i)))
+				 return true;
+		 return false;
 	 }
 	 
 	 public boolean explored() {
@@ -64,22 +198,62 @@ public class MapState {
 	 }
 	 
 	 public void addDanger(int x, int y, int d) {
-		 danger[x][y] += d;
+		 danger.addDanger(map.tile(x, y), d);
+	 }
+	 
+	 /*
+	  * Add danger d to everything within the given range of cx,cy
+	  */
+	 public void addDanger(int cx, int cy, long min, long max, int d) {
+		 danger.add(danger.area(min, max), cx, cy, d);
+	 }
+	 
+	 /*
+	  * Add the danger from an enemy unit with the given attack range (see DangerField.threat)
+	  * This can be removed again with removeThreat if the enemy dies during our turn
+	  */
+	 public void addThreat(int id, UnitType type, int cx, int cy, long min, long max, int d) {
+		 danger.add(id, danger.threat(type, min, max), cx, cy, d);
+	 }
+	 
+	 public void removeThreat(int id) {
+		 danger.remove(id);
+	 }
+	 
+	 /*
+	  * The tiles we can see - shared so must not be modified
+	  */
+	 public TileSet visibleTiles() {
+		 return visible;
 	 }
 	 
 	 public boolean visible(int x, int y) {
-		 return visible[x][y];
+		 return visible.get(map.tile(x, y));
 	 }
 	 
 	 public int danger(int x, int y) {
-		 return danger[x][y];
+		 return danger.danger(map.tile(x, y));
+	 }
+	 
+	 public int danger(int tile) {
+		 return danger.danger(tile);
 	 }
 	 
 	 public int danger(MapLocation m) {
-		 return danger[m.getX()][m.getY()];
+		 return danger.danger(map.tile(m));
+	 }
+	 
+	 /*
+	  * The tiles with any danger - shared so must not be modified
+	  */
+	 public TileSet dangerMask() {
+		 return danger.mask();
 	 }
 	 
-	 public LinkedList<MapLocation> exploreZone() {
+	 /*
+	  * The current explore zone - shared so must not be modified
+	  */
+	 public IndexedTileSet exploreZone() {
 		 return exploreZone;
 	 }
 }
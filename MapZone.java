@@ -1,19 +1,16 @@
-import java.util.ArrayList;
-
-import bc.*;
-
 /*
  * The class stores information about distinctly separate areas of a map (Mars)
+ * Tiles are held as packed locations (see Loc) as the zones of Mars are used from Earth
  */
 public class MapZone implements Comparable<MapZone> {
-	public ArrayList<MapLocation>	tiles; //List of connected tiles in this area
-	public ArrayList<MapLocation>	landingSites; //subset of tiles where we can land
+	public IntList					tiles; //List of connected tiles in this area
+	public IntList					landingSites; //subset of tiles where we can land
 	public int						karbonite; //Total karbonite that will land in this area
 	public int						id; //Zone ID starting at 0
 	
 	public MapZone(int zoneId) {
-		tiles = new ArrayList<MapLocation>();
-		landingSites = new ArrayList<MapLocation>();
+		tiles = new IntList();
+		landingSites = new IntList();
 		karbonite = 0;
 		id = zoneId;
 	}
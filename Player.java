@@ -5,7 +5,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Random;
 
 import bc.*;
@@ -23,13 +22,21 @@ public class Player {
     private static long currentRound; //Updated each turn
     private static UnitCache units; //The list of all known units - updated each turn in the main loop   
     private static VecUnit unitsInSpace; //The list of all units on the way to mars
+    private static Handles handles; //Engine objects we only need this round - freed at the end of it
+    private static PlanetMap startingMap; //Our planet - fetched once
+    private static Schedule schedule; //Asteroids and flight times - read from the engine once
     private static Random randomness = new Random(74921);
     private static Karbonite karbonite;
+    private static Actions actions; //Every unit action goes through here so our caches stay up to date
     private static boolean conquered = false; //Set to true once we have conquered earth
     private static boolean haltProduction = false; //Set to true when we need to save up for a rocket or we have too many units to process
  
     private static final long EvacuationRound = 600;
     private static final long FloodRound = 749;
+    private static final int ClusterMapTiles = 1200; //Maps with more passable tiles than this use the ClusterGraph
+    private static final int ClusterSize = 10, ClusterNearRadius = 8; //Bigger radius is more exact but slower
+    private static final int DistanceFields = 32; //The DistanceCache holds about this many fields at 2 bytes a tile - 160KB on a 50x50 map, on top of the DistanceOracle's 1.6MB a zone (see DistanceOracle.ALL_PAIRS_LIMIT)
+    private static final int LazyUnits = 4; //Defer the combat maps if no more than this many combat units can move
     private static final int debugLevel = 0;
     
     public static void main(String[] args) {
@@ -43,7 +50,9 @@ public class Player {
 
         //Cache the initial map
         myPlanet = gc.planet();
-        units = new UnitCache(gc);
+        handles = new Handles();
+        startingMap = gc.startingMap(myPlanet);
+        units = new UnitCache(gc, handles, (int)startingMap.getWidth(), (int)startingMap.getHeight());
         
     	scanMap();      
         runPlanet();
@@ -58,14 +67,12 @@ public class Player {
        
         		if (gc.getTimeLeftMs() > 500) {	        		
 		            updateUnits();
-		            karbonite.update(mapState);
+		            karbonite.update(mapState, units, otherTeam);
 		            updateResearch();
 		            
-		            VecUnit known = units.allUnits();
-		            for (int i=0; i<known.size(); i++) {
-		            	Unit u = known.get(i);
-		            	if (u.team() == myTeam)
-		            		processUnit(u);
+		            for (int slot=0; slot<units.slots(); slot++) {
+		            	if (units.team(slot) == myTeam && units.alive(units.id(slot))) //Our mages can kill our own units
+		            		processUnit(units.unit(slot));
 		            }
         		}   
 	            
@@ -75,6 +82,8 @@ public class Player {
         		System.out.println("Caught exception " + e);
         		e.printStackTrace();
         	}
+        	
+        	handles.release(); //Nothing the engine gave us this round is used after this
         	gc.nextTurn();
         }
     }
@@ -132,7 +141,7 @@ public class Player {
     	for (int z=0; z < zones; z++)
     		totalRocketsNeeded += zoneState[z].rocketsNeeded(currentRound);	
     	
-    	if (gc.researchInfo().getLevel(UnitType.Rocket) > 0) //We have the tech - save up
+    	if (handles.add(gc.researchInfo()).getLevel(UnitType.Rocket) > 0) //We have the tech - save up
     		haltProduction |= (totalRocketsNeeded * bc.bcUnitTypeBlueprintCost(UnitType.Rocket) > k);
     	else //We don't have the tech yet - only save up if we have conquered Earth
     		haltProduction |= conquered;
@@ -140,7 +149,7 @@ public class Player {
     	if (haltProduction)
     		return;
     	
-    	if (gc.researchInfo().getLevel(UnitType.Rocket) > 0)
+    	if (handles.add(gc.researchInfo()).getLevel(UnitType.Rocket) > 0)
     		k -= totalRocketsNeeded*bc.bcUnitTypeBlueprintCost(UnitType.Rocket); //We need to spend this much on rockets
     	
     	if (k < bc.bcUnitTypeBlueprintCost(UnitType.Factory))
@@ -169,55 +178,42 @@ public class Player {
 		int bestScoreWithSacrifice = threshold;
 
 		for (Unit w: workers) {
-			MapLocation loc = w.location().mapLocation();
+			MapLocation loc = locationOf(w);
 			if (map.zone(loc) == minZone) {					
-				int baseScore = 0;
-				for (Unit u:senseNearbyUnits(loc, 50, null)) {
-					if (u.team() == myTeam) {
-						if (u.unitType().equals(UnitType.Worker))
-							baseScore++;
-					} else {
-						switch (u.unitType()) {
-						case Knight:
-						case Ranger:
-						case Mage:
-							baseScore-=2;
-							break;
-						case Factory:
-							baseScore-=4;
-							break;
-						default:
-							break;
-						}
-					}
-				}
+				int x = loc.getX(), y = loc.getY();
+				int baseScore = units.countWithin(x, y, 50, myTeam, UnitType.Worker)
+						- 2 * (units.countWithin(x, y, 50, otherTeam, UnitType.Knight) +
+								units.countWithin(x, y, 50, otherTeam, UnitType.Ranger) +
+								units.countWithin(x, y, 50, otherTeam, UnitType.Mage))
+						- 4 * units.countWithin(x, y, 50, otherTeam, UnitType.Factory);
 		    	
-		    	LinkedList<MapLocation> options = allOpenNeighbours(loc);
-		    	boolean sacrifice = (options.size() == 0);
-		    	if (sacrifice) //We'd need a sacrifice to build from here
-		    		options = map.passableNeighbours(loc);
+		    	int here = map.tile(loc);
+		    	boolean sacrifice = true; //We'd need a sacrifice to build from here if all our neighbours are occupied
+		    	for (int i=map.firstPassableNeighbour(here); i<map.endPassableNeighbour(here) && sacrifice; i++)
+		    		sacrifice = units.occupied(map.passableNeighbour(i));
 				
-				for (MapLocation m: options) {
-					if (mapState.danger(m.getX(), m.getY()) == 0) {
+				for (int n=map.firstPassableNeighbour(here); n<map.endPassableNeighbour(here); n++) {
+					int m = map.passableNeighbour(n);
+					if ((sacrifice || !units.occupied(m)) && mapState.danger(m) == 0) {
 						int score = baseScore;
-						for (MapLocation n:map.passableNeighbours(m)) {
+						for (int i=map.firstPassableNeighbour(m); i<map.endPassableNeighbour(m); i++) {
 							score++; //Each open neighbour is good for getting workers here
-							Unit u = units.unitAt(n);
-							if (u != null && u.unitType().equals(UnitType.Factory))
+							int u = units.slot(map.passableNeighbour(i));
+							if (u >= 0 && units.type(u) == UnitType.Factory)
 								score-=4;
 						}
-		    			if (karbonite.karboniteAt(m) > 0)
+		    			if (karbonite.karboniteAt(map.x(m), map.y(m)) > 0)
 		    				score--;
 
 		    			if (sacrifice) {
 		    				if (score > bestScoreWithSacrifice) {
 			    				bestScoreWithSacrifice = score;
-			    				dirWithSacrifice = loc.directionTo(m);
+			    				dirWithSacrifice = map.directionTo(here, m);
 			    				bestWorkerWithSacrifice = w;
 		    				}
 		    			} else if (score > bestScore) {
 		    				bestScore = score;
-		    				dir = loc.directionTo(m);
+		    				dir = map.directionTo(here, m);
 		    				bestWorker = w;
 		    			}
 		    		}
@@ -226,26 +222,26 @@ public class Player {
 		}
 		
 		if (bestWorker == null && bestWorkerWithSacrifice != null && zoneState[minZone].myLandUnits[UnitType.Factory.ordinal()] == 0) {
-			MapLocation buildLoc = bestWorkerWithSacrifice.location().mapLocation().add(dirWithSacrifice);
+			MapLocation buildLoc = map.add(locationOf(bestWorkerWithSacrifice), dirWithSacrifice);
 			Unit s = units.unitAt(buildLoc);
-			gc.disintegrateUnit(s.id());
+			actions.disintegrateUnit(s.id());
 			bestWorker = bestWorkerWithSacrifice;
 			dir = dirWithSacrifice;
 		}
 		
 		if (bestWorker != null && gc.canBlueprint(bestWorker.id(), UnitType.Factory, dir)) {
-			MapLocation m = bestWorker.location().mapLocation().add(dir);
-			gc.blueprint(bestWorker.id(), UnitType.Factory, dir);
-			units.updateUnit(m);
-			units.updateUnit(bestWorker.id());
+			MapLocation m = map.add(locationOf(bestWorker), dir);
+			actions.blueprint(bestWorker.id(), UnitType.Factory, dir);
 			//debug(2, "worker blueprinting factory");
 			zoneState[minZone].myLandUnits[UnitType.Factory.ordinal()]++;
 			
-			LinkedList<MapLocation> workSpace = new LinkedList<MapLocation>();
+			IntList workSpace = new IntList(8); //Tiles
 			
-			for (MapLocation p: map.passableNeighbours(m)) {
-				Unit u = units.unitAt(p);
-				if (u == null || (!u.unitType().equals(UnitType.Factory) && !u.unitType().equals(UnitType.Rocket)))
+			int t = map.tile(m);
+			for (int i=map.firstPassableNeighbour(t); i<map.endPassableNeighbour(t); i++) {
+				int p = map.passableNeighbour(i);
+				int u = units.slot(p);
+				if (u < 0 || (units.type(u) != UnitType.Factory && units.type(u) != UnitType.Rocket))
 					workSpace.add(p);
 			}
 
@@ -265,46 +261,48 @@ public class Player {
     }
     
     /*
-     * Returns an array containing all the open neighbours of a map location
-     * Open means on the map and not water and doesn't contain a unit
+     * Returns true if a unit could move onto the given tile
+     * Open means on the map and not water and doesn't contain a blocking unit
      */
-    private static LinkedList<MapLocation> allOpenNeighbours(MapLocation l) {
-    	LinkedList<MapLocation> result = new LinkedList<MapLocation>();
-    	
-    	for (MapLocation test:map.passableNeighbours(l)) {
-    		if (units.unitAt(test) == null)
-				result.add(test);
-		}
-    	
-    	return result;
+    private static boolean canMoveTo(int tile) {
+    	if (!units.occupied(tile))
+    		return true;
+		return isOurStructure(units.unitAt(map.x(tile), map.y(tile)));
     }
     
     /*
-     * Returns an array containing all the neighbours of a map location we can move to
-     * Open means on the map and not water and doesn't contain a blocking unit
+     * Where a unit is - read from the unit cache so no native Location or MapLocation is created
+     * Only units we no longer track (seen to die this round) are asked about
      */
-    private static LinkedList<MapLocation> allMoveNeighbours(MapLocation l) {
-    	LinkedList<MapLocation> result = new LinkedList<MapLocation>();
-    	for (MapLocation test:map.passableNeighbours(l)) {
-    		Unit u = units.unitAt(test);
-			if (u == null || isOurStructure(u))
-				result.add(test);
-		}
-    	
-    	return result;
+    private static MapLocation locationOf(Unit unit) {
+    	int slot = units.slotOf(unit.id());
+    	if (slot >= 0)
+    		return map.loc(units.x(slot), units.y(slot));
+    	
+    	Location l = unit.location();
+    	MapLocation m = l.mapLocation();
+    	handles.free(l);
+    	return handles.add(m);
+    }
+    
+    private static boolean isOnMap(Unit unit) {
+    	int slot = units.slotOf(unit.id());
+    	return (slot >= 0 && units.onMap(slot));
     }
     
+    private static int[] nearby = null; //Slots found by senseNearbyUnits
+    
     /*
      * A faster version of the sense routine that uses our cache of units
+     * Only tiles holding a unit of the right team are visited (see UnitCache.within)
      */
     private static LinkedList<Unit> senseNearbyUnits(MapLocation centre, long radius, Team team) {
     	LinkedList<Unit> result = new LinkedList<Unit>();
-    	
-    	for (MapLocation m: map.allLocationsWithin(centre, -1, radius)) {
-    		Unit u = units.unitAt(m);
-    		if (u != null && (team == null || u.team() == team)) {
+    	int found = units.within(centre.getX(), centre.getY(), radius, team, null, nearby);
+    	for (int i=0; i<found; i++) {
+    		Unit u = units.unit(nearby[i]);
+    		if (u != null)
     			result.add(u);
-    		}
     	}
     	return result;
     }
@@ -317,27 +315,22 @@ public class Player {
     private static Unit moveUnit(Unit unit, boolean allowStructure) {
     	int id = unit.id();
     	
-    	if (!unit.location().isOnMap() || !gc.isMoveReady(id))
+    	if (!isOnMap(unit) || !gc.isMoveReady(id))
     		return unit;
     	
     	Direction d = bestMove(unit, getGravityMap(unit.unitType()), false);  
     	if (d == null)
     		return unit; //Nowhere better
     	
-    	MapLocation loc = unit.location().mapLocation();
-		MapLocation dest = loc.add(d);
+    	MapLocation loc = locationOf(unit);
+		MapLocation dest = map.add(loc, d);
 		
 		if (gc.canMove(id, d)) {
-			units.removeUnit(loc);
-			gc.moveRobot(id, d);  			
-			unit = units.updateUnit(id);
+			actions.moveRobot(id, d);
 		} else { //Check to see if there is a structure of ours there
 			Unit structure = units.unitAt(dest);
 			if (structure != null && allowStructure && gc.canLoad(structure.id(), id)) {
-				units.removeUnit(loc);
-				gc.load(structure.id(), id);
-				units.updateUnit(structure.id());
-				unit = gc.unit(unit.id());
+				actions.load(structure.id(), id);
 				//debug(2, "Loading " + unit.unitType() + " into " + structure.unitType());
 			}
     	}
@@ -348,8 +341,8 @@ public class Player {
      * Returns a value determined by the unit type
      * Higher means we want to shoot this first
      */
-    private static int unitPriority(Unit u) {
-    	switch (u.unitType()) {
+    private static int unitPriority(UnitType type) {
+    	switch (type) {
     	case Mage: //Massive damage if they get close - take them out first
     		return 5;
     	case Knight: //Similar to mages - we don't want them getting close
@@ -373,22 +366,22 @@ public class Player {
     private static Unit splashAttack(Unit unit) {
     	int id = unit.id();
     	
-		if (!unit.location().isOnMap() || !gc.isAttackReady(id))
+		if (!isOnMap(unit) || !gc.isAttackReady(id))
 			return unit;
 		
     	long mostDamage = 0;
     	Unit best = null;
-    	LinkedList<Unit> inRange = senseNearbyUnits(unit.location().mapLocation(), unit.attackRange(), otherTeam);
+    	LinkedList<Unit> inRange = senseNearbyUnits(locationOf(unit), unit.attackRange(), otherTeam);
     	HashSet<Unit> targets = new HashSet<Unit>(); //Unique set of units in splash range
     	
     	for (Unit e: inRange) { //Loop over enemy units and add in all units in splash range
-    		targets.addAll(senseNearbyUnits(e.location().mapLocation(), 2, null));
+    		targets.addAll(senseNearbyUnits(locationOf(e), 2, null));
     	}
     	
     	for (Unit centre: targets) {
     		if (gc.canAttack(id, centre.id())) {
     			long totalDamage = 0;
-    			for (Unit splashed: senseNearbyUnits(centre.location().mapLocation(), 2, null)) {
+    			for (Unit splashed: senseNearbyUnits(locationOf(centre), 2, null)) {
 	    			long damage = Math.min(splashed.health(), unit.damage()); //How much damage we will do
 	    			if (splashed.team() == myTeam)
 	    				totalDamage -= damage; //Bad
@@ -407,13 +400,16 @@ public class Player {
     		return unit;
     	
 		//debug(2, "Mage firing on " + best.unitType());
-		gc.attack(unit.id(), best.id());
+		LinkedList<Unit> hit = senseNearbyUnits(locationOf(best), 2, null);
+		actions.attack(unit.id(), best.id());
 		
-		//Update all affected units
-		for (Unit splashed: senseNearbyUnits(best.location().mapLocation(), 2, null))
-			units.updateUnit(splashed.id());
+		//Any enemy we killed is no longer a danger
+		for (Unit splashed: hit) {
+			if (!units.alive(splashed.id()))
+				mapState.removeThreat(splashed.id());
+		}
 		
-		return units.updateUnit(id);
+		return units.unitOf(id); //null if we hit ourself and died
     }
     
     /*
@@ -427,33 +423,42 @@ public class Player {
     private static Unit attackWeakest(Unit unit) {
     	int id = unit.id();
     	
-		if (!unit.location().isOnMap() || !gc.isAttackReady(id))
+		if (!isOnMap(unit) || !gc.isAttackReady(id))
 			return unit;
 		
 		//Pick the enemy with the highest priority and most damage that is in range
 		int highestPriority = -1;
-    	long mostDamage = -1;
-    	Unit best = null;
-    	
-    	for (Unit enemy: senseNearbyUnits(unit.location().mapLocation(), unit.attackRange(), otherTeam)) {
-    		if (gc.canAttack(id, enemy.id())) {
-    			int priority = unitPriority(enemy);
-    			long damage = enemy.maxHealth() - enemy.health();
+    	int mostDamage = -1;
+    	int best = -1; //id of the enemy to attack
+    	
+    	MapLocation here = locationOf(unit);
+    	MapCache.Disk inRange = map.disk(-1, unit.attackRange());
+    	for (int i=0; i<inRange.size; i++) {
+    		int x = here.getX() + inRange.dx[i], y = here.getY() + inRange.dy[i];
+    		if (!map.onMap(x, y))
+    			continue;
+    		int enemy = units.slot(map.tile(x, y));
+    		if (enemy < 0 || units.team(enemy) != otherTeam)
+    			continue;
+    		
+    		if (gc.canAttack(id, units.id(enemy))) {
+    			int priority = unitPriority(units.type(enemy));
+    			int damage = units.maxHealth(enemy) - units.health(enemy);
     			if (priority > highestPriority || (priority == highestPriority && damage > mostDamage)) {
-	    			best = enemy;
+	    			best = units.id(enemy);
 	    			highestPriority = priority;
 	    			mostDamage = damage;
     			}
     		}
     	}
 
-    	if (best == null)
+    	if (best < 0)
     		return unit;
     	
-		//debug(2, unit.unitType() + " firing on " + best.unitType());
-		gc.attack(unit.id(), best.id());
-		units.updateUnit(best.id());
-		return units.updateUnit(id);	
+		actions.attack(unit.id(), best);
+		if (!units.alive(best)) //We killed it
+			mapState.removeThreat(best);
+		return unit; //Only our attack heat has changed and that is tracked by the unit cache
     }
     
     /*
@@ -470,7 +475,7 @@ public class Player {
     LinkedList<MapLocation> snipeTargets = new LinkedList<MapLocation>();
     
     private static MapLocation bestSnipeTarget(LinkedList<Unit> enemies) {
-    	LinkedList<MapLocation> enemiesToSnipe = mapState.exploreZone();
+    	IntList enemiesToSnipe = null;
     	
     	if (enemyStructures.size() > 0)
     		enemiesToSnipe = enemyStructures;
@@ -481,11 +486,14 @@ public class Player {
     	else if (enemyOthers.size() > 0)
     		enemiesToSnipe = enemyOthers;
     	  	
-    	if (enemiesToSnipe.size() > 0) {
+    	if (enemiesToSnipe != null) {
     		int r = randomness.nextInt(enemiesToSnipe.size());
-    		return enemiesToSnipe.get(r);
+    		return map.loc(map.tileOf(enemiesToSnipe.get(r)));
     	}
     	
+    	if (!conquered && !mapState.exploreZone().isEmpty())
+    		return map.loc(mapState.exploreZone().random(randomness));
+    	
     	return null;
     }
     
@@ -493,7 +501,7 @@ public class Player {
     	int best_id = -1;
     	int mostDamage = -1;
     	
-    	for (Unit enemy: senseNearbyUnits(knight.location().mapLocation(), knight.attackRange(), otherTeam)) {
+    	for (Unit enemy: senseNearbyUnits(locationOf(knight), knight.attackRange(), otherTeam)) {
     		if (enemy.maxHealth() - enemy.health() > mostDamage) {
     			mostDamage = (int)(enemy.maxHealth() - enemy.health());
     			best_id = enemy.id();
@@ -507,109 +515,104 @@ public class Player {
 	 * All movement is based on gravity wells generated by points of interest
      * The gravity well maps are stored in arrays that map onto the Planet map
      * High scores are more interesting - units move to an adjacent tile with a higher score if possible
+     * Each map (see GravityMap) only holds the ripple contributions as floats indexed by tile and is reset each turn in O(1).
+     * The maps are named layers (see GravityLayers) - the rocket call, the healing field and a target layer per unit type -
+     * each written once. Each unit type reads its own blend of them (see GravityBlend) so the rocket call is shared by all.
+     * Noise and danger are not layers - they are added in as the maps are read (see gravity()) from the hash and the DangerField
+     * which already reset in O(1), so no layer has to be rewritten for them each round
      * 
      * We create these maps each turn that a unit needs to move and only as needed
      **************************************************************************************/
     
     private static MapCache map = null;
-    private static double[][] workerMap = null;
-    private static double[][] mageMap = null;
-    private static double[][] rangerMap = null;
-    private static double[][] healerMap = null;
-    private static double[][] knightMap = null;
-    private static double[][] damagedMap = null; // Used by damaged units - head to a healer
-    private static double[][][] allMaps = null;
+    private static RippleEngine rippler = null; //Shared search state for all ripples
+    private static FusedRipple fused = null; //Runs several ripples in one search
+    private static DistanceCache distances = null; //Ripples from sources that rarely change reuse last turn's search
+    private static DistanceOracle oracle = null; //Walking distance between any two tiles
+    private static ClusterGraph clusters = null; //Approximate ripples for the enemy on big maps - null on small ones
+    private static LazyGravity lazy = null; //Ripples only worked out where they are read
+    private static boolean deferCombat = false; //The combat maps are deferred this round
+    private static TileSet safeDeposits = null; //Scratch set for building the worker map
+    private static GravityLayers layers = null;
+    private static GravityMap rocketMap = null; //The layers - rockets calling units in
+    private static GravityMap damagedMap = null; //Healers for damaged units
+    private static GravityMap workerMap = null; //Targets for each unit type
+    private static GravityMap mageMap = null;
+    private static GravityMap rangerMap = null;
+    private static GravityMap healerMap = null;
+    private static GravityMap knightMap = null;
+    private static GravityBlend[] blends = null; //Indexed by unit type - the layers each type is drawn by
+    private static GravityBlend damagedBlend = null; //Used by damaged units - head to a healer
     
     private static long workerMapLastUpdated = -1;
-    private static long mageMapLastUpdated = -1;
-    private static long rangerMapLastUpdated = -1;
-    private static long healerMapLastUpdated = -1;
-    private static long knightMapLastUpdated = -1;
+    private static long combatMapsLastUpdated = -1; //Ranger, mage, knight and healer maps are built together
     
-    private static boolean isMatch(MapLocation here, UnitType match, boolean ignoreWorkers) {
-    	Unit unit = units.unitAt(here);
-		return (unit != null && unit.team() == myTeam &&
-				(match == null || match == unit.unitType()) &&
-				(unit.unitType() != UnitType.Worker || !ignoreWorkers));
+    private static boolean isMatch(int tile, UnitType match) {
+    	return units.isMatch(tile, myTeam, match, false);
     }
     
     /*
-     * Ripple out from the given edge (set of points) until a given number of our units have been found scoring each tile as we go - the nearer the higher the score
-     * For each location we mark it as open (i.e. on the list to process), closed (processed) or unseen
+     * Ripple out from the given edge (a list of tiles) until a given number of our units have been found scoring each tile as we go - the nearer the higher the score
      * 
      * Since this routine is called more than any other - efficiency is key.
-     * If called with a null gravity map then we actually add to all gravity maps
+     * The search itself is run by the rippler which works on tile indices and allocates nothing
+     * When several ripples are needed at once use the FusedRipple (fused) so they share one search
+     * Ripples from sources that rarely change go through the DistanceCache (distances) so the search is reused between turns
+     */
+    public static void ripple(GravityMap gravityMap, IntList edge, float points, UnitType match, int max, int stop) {
+    	rippler.clear();
+    	for (int i=0; i<edge.size(); i++)
+    		rippler.add(edge.get(i));
+    	
+    	ripple(gravityMap, points, match, max, stop);
+    }
+    
+    /*
+     * Ripple out from the tiles already queued in the rippler
+     * The rippler drops duplicates and impassable tiles as they are added
      */
-    public static void ripple(double[][] gravityMap, LinkedList<MapLocation> edge, double points, UnitType match, int max, int stop) {
-    	boolean[][] open = new boolean[map.width()][map.height()]; //true if in the open list
+    private static void ripple(GravityMap gravityMap, float points, UnitType match, int max, int stop) {
     	int distance = 0; //How far from the source are we
     	int matchCount = 0; //How many units of the right type have we seen
-    	boolean ignoreWorkers = (gravityMap == null && currentRound <= 700); //Rockets don't want workers before round 700
     	
-    	//debug(3, "ripple: starting points " + edge.size() + " value " + points + " stop when " + max + " " + match + " or at dist " + stop);
+    	//debug(3, "ripple: starting points " + rippler.size() + " value " + points + " stop when " + max + " " + match + " or at dist " + stop);
     	
-    	/*
-    	 * Mark all valid locations as processed (seen)
-    	 * Remove duplicates.
-    	 * Count matching units
-    	 */
-    	for (Iterator<MapLocation> iterator = edge.iterator(); iterator.hasNext();) {
-    	    MapLocation m = iterator.next();
-    	    int x = m.getX(), y = m.getY();
-    	    if (!open[x][y] && map.passable(x, y)) {
-    	    	open[x][y] = true;
-    	    	if (isMatch(m, match, ignoreWorkers))
-					matchCount++;
-    	    } else
-    			iterator.remove();
+    	//Count matching units in the starting tiles
+    	for (int i=0; i<rippler.size(); i++) {
+    		if (isMatch(rippler.peek(i), match))
+    			matchCount++;
     	}
 
     	/*
     	 * This is a modified Breadth First Search
-    	 * Since we want to know the distance from the source we maintain a current open list (edge)
-    	 * and build up the next open list (nextEdge). When edge is processed (empty) we increment the distance and switch to the nextEdge
+    	 * Since we want to know the distance from the source we process the queue a layer at a time
+    	 * The tiles waiting at the start of a layer are all the same distance from the source, any added while processing them are one further
     	 */
-    	while (!edge.isEmpty()) {
+    	while (rippler.size() > 0) {
     		distance++;
     		if (stop > 0 && distance >= stop) {
     			//debug(3, "Ripple stop distance " + stop + " reached");
     			return;
     		}
-    		double gravity = points/(distance*distance);
-    		LinkedList<MapLocation> nextEdge = new LinkedList<MapLocation>();
+    		float gravity = points * GravityMap.falloff(distance);
     		
-        	for (MapLocation me: edge) {
-        		int x = me.getX(), y = me.getY();
-        		boolean addNeighbours = true;  
+    		for (int layer = rippler.size(); layer > 0; layer--) {
+    			int tile = rippler.poll();
     			//Score this tile
-        		if (gravityMap != null)
-        			gravityMap[x][y] += gravity;
-        		else { //Rockets
-        			for (double[][] m:allMaps) //Add to all maps but ignore workers before round 700
-	        			if (m != workerMap || currentRound > 700)
-	        				m[x][y] += gravity;
-        		}
+        		gravityMap.add(tile, gravity);
         		
-        		if (distance == 1 && match != null && isMatch(me, match, ignoreWorkers)) //This is a starting tile that is already occupied by the right unit
-					addNeighbours = false;
+        		if (distance == 1 && match != null && isMatch(tile, match)) //This is a starting tile that is already occupied by the right unit
+					continue;
 	       		
     			//We add adjacent tiles to the next search if they are traversable
-				//To avoid pile ups we check to see if a unit is stuck at a location and potentially delay adding in the neighbours
-        		if (addNeighbours) {
-        			for (MapLocation t:map.passableNeighbours(me)) {
-		    			if (!open[t.getX()][t.getY()]) {
-			    			nextEdge.add(t);
-			    			if (isMatch(t, match, ignoreWorkers))
-			    				matchCount++;
-			    			open[t.getX()][t.getY()] = true;
-			    			//debug(4, "ripple Added " + t);
-		    			}
-		    		}
-        		}
+    			for (int i=map.firstPassableNeighbour(tile); i<map.endPassableNeighbour(tile); i++) {
+    				int next = map.passableNeighbour(i);
+	    			if (rippler.add(next) && isMatch(next, match))
+	    				matchCount++;
+	    		}
     		}
-    		//debug(4, "Ripple distance " + distance + " edge size = " + nextEdge.size());
+    		//debug(4, "Ripple distance " + distance + " edge size = " + rippler.size());
     		
-    		edge = nextEdge;
     		if (matchCount >= max) {
     			//debug(3, "Ripple match count met at distance " + distance);
     			return;
@@ -619,52 +622,65 @@ public class Player {
     	//debug(3, "Ripple queue empty: complete at distance " + distance);
     }
     
-    public static void ripple(double[][] gravityMap, MapLocation t, double points, UnitType match, int max, int stop) {
-    	LinkedList<MapLocation> edge = new LinkedList<MapLocation>();
-    	edge.add(t);
-
-    	ripple(gravityMap, edge, points, match, max, stop);
+    /*
+     * The value of a tile in a gravity map
+     * This is the ripple contributions plus a little random noise (to break ties) minus the danger
+     */
+    private static double gravity(GravityBlend gravityMap, int tile) {
+    	return gravityMap.get(tile) + noise(tile) - mapState.danger(tile);
     }
     
-    public static void ripple(double[][] gravityMap, int x, int y, double points, UnitType match, int max, int stop) {
-    	LinkedList<MapLocation> edge = new LinkedList<MapLocation>();
-    	edge.add(map.loc(x, y));
-
-    	ripple(gravityMap, edge, points, match, max, stop);
+    /*
+     * A random value per tile that changes each round - it is a hash of the tile and round so it needs no storage
+     * It is worked out on each read rather than held as a layer so a reset never has to rewrite every tile
+     */
+    private static double noise(int tile) {
+    	int slot = units.slot(tile);
+    	if (slot >= 0 && units.team(slot) == myTeam && units.type(slot) == UnitType.Factory)
+    		return 0; //Don't randomly walk into factories
+    	
+    	int h = (tile * 0x9E3779B9) ^ ((int)currentRound * 0x85EBCA6B);
+    	h ^= h >>> 15;
+    	h *= 0x2C1B3C6D;
+    	h ^= h >>> 12;
+    	return (h >>> 8) / (double)(1 << 24) / 10000.0;
     }
     
     /*
-     * Fill all the gravity maps with random noise
-     * Add in the danger zones for all but the knight map
-     * Finally run a special version of ripple for each rocket to call in the required units to each one
+     * Reset all the gravity layers - noise and danger are added when they are read
+     * Finally ripple out from each rocket to call in the required units to each one
+     * The healing ripples are run together in one search, the rockets reuse their searches from earlier turns
+     * Workers only answer the rocket call after round 700
      */
     private static void initGravityMaps() {   	 	
 		
-    	for (int x=0; x<map.width(); x++) {
-    		for (int y=0; y<map.height(); y++) {
-    			double noise = randomness.nextDouble() / 10000.0;
-    			Unit u = units.unitAt(map.loc(x, y));
-    			if (u != null && u.team() == myTeam && u.unitType() == UnitType.Factory)
-    				noise = 0; //Don't randomly walk into factories
-    			for (double[][] me:allMaps) {
-	    			me[x][y] = noise - mapState.danger(x, y);    			
-		    	}
-	    	}
-    	}
+    	layers.reset();
+    	lazy.clear();
+    	blends[UnitType.Worker.ordinal()].setWeight(GravityLayers.ROCKET, (currentRound <= 700)?0:1);
 		
 		/*
 		 * The damagedMap is for all units who have lost half their health
 		 */
+    	fused.clear();
     	if (unitsToHeal.size() > 0 && healers.size() > 0) {
-    		LinkedList<MapLocation> healing = new LinkedList<MapLocation>();
+    		MapCache.Disk healing = map.disk(0, 30); //All areas in range but ignoring our location
     		
-    		for (MapLocation h:healers)
-    			healing.addAll(map.allLocationsWithin(h, 0, 30)); //All areas in range but ignoring our location
-    		ripple(damagedMap, healing, 10, null, 1000, -1);
+    		int job = fused.addJob(damagedMap, 10, null, 1000, -1);
+    		for (int i=0; i<healers.size(); i++)
+    			fused.addDisk(job, Loc.x(healers.get(i)), Loc.y(healers.get(i)), healing);
     	}
     	
-    	if (myPlanet != Planet.Earth) //We process rockets next - nothing to do on Mars
-    		return;
+    	if (myPlanet == Planet.Earth) //Nothing to call in on Mars
+    		addRocketJobs();
+    	fused.run();
+    }
+    
+    /*
+     * Rockets call units to them - these ripples score the rocket layer that every unit type reads but ignore workers before round 700
+     */
+    private static void addRocketJobs() {
+    	GravityMap[] rocketMaps = { rocketMap };
+    	boolean ignoreWorkers = (currentRound <= 700);
     	
     	/*
     	 * Add Rockets that are ready to board and have space
@@ -683,14 +699,16 @@ public class Player {
 	    	int passengers = totalCombatForce - desiredUnits;
 
 	    	if (conquered || currentRound > EvacuationRound) {
-	    		LinkedList<MapLocation> allRockets = new LinkedList<MapLocation>();
+	    		if (zone.rockets.isEmpty())
+	    			continue;
 	    		for (Unit r: zone.rockets)
-	    			allRockets.add(r.location().mapLocation());
-	    		ripple(null, allRockets, 10000000, null, 1000, -1); //Shout really loudly to all units
+	    			distances.addSource(locationOf(r));
+	    		distances.ripple(rocketMaps, 10000000, null, ignoreWorkers, 1000, -1); //Shout really loudly to all units
 	    	} else if (passengers > 0) {
 	    		for (Unit r: zone.rockets) {
-	    			int request = Math.min(passengers,  (int)(r.structureMaxCapacity() - r.structureGarrison().size()));
-	    			ripple(null, r.location().mapLocation(), currentRound, null, passengers, -1);
+	    			int request = Math.min(passengers,  (int)(r.structureMaxCapacity() - handles.add(r.structureGarrison()).size()));
+	    			distances.addSource(locationOf(r));
+	    			distances.ripple(rocketMaps, currentRound, null, ignoreWorkers, passengers, -1);
 	    			passengers -= request;
 	    			if (passengers <= 0)
 	    				break;
@@ -710,6 +728,49 @@ public class Player {
      * - Attack area around enemy units
      ******************************************************************************************/
       
+    /*
+     * The ranger, mage, knight and healer maps all ripple out from the same enemies so they are built together in one search
+     * When only a few combat units can move the enemy ripples are deferred instead (see LazyGravity) and only worked out
+     * at the tiles those units look at
+     */
+    private static void updateCombatMaps() {
+    	if (combatMapsLastUpdated == currentRound) //We have already done it
+    		return;
+    	
+    	combatMapsLastUpdated = currentRound;
+    	int ready = combatUnitsReady();
+    	deferCombat = (oracle.complete() && ready <= LazyUnits);
+    	lazy.setReaders(ready);
+    	fused.clear();
+    	addRangerJobs();
+    	addMageJobs();
+    	addKnightJobs();
+    	addHealerJobs();
+    	fused.run();
+    }
+    
+    /*
+     * How many of our combat units on the map can move this round
+     */
+    private static int combatUnitsReady() {
+    	int ready = 0;
+    	for (int slot=0; slot<units.slots(); slot++) {
+    		if (units.team(slot) != myTeam || !units.onMap(slot) || units.movementHeat(slot) >= 10)
+    			continue;
+    		UnitType type = units.type(slot);
+    		if (type == UnitType.Ranger || type == UnitType.Mage || type == UnitType.Knight || type == UnitType.Healer)
+    			ready++;
+    	}
+    	return ready;
+    }
+    
+    private static int unitCount(UnitType type) {
+    	int count = 0;
+    	for (int z=0; z<zones; z++)
+    		count += zoneState[z].myLandUnits[type.ordinal()];
+    	return count;
+    }
+    
     /*
      * Rangers are combat units
      * They move towards enemy units, our workers (to protect them) and rockets.
@@ -718,91 +779,128 @@ public class Player {
 	 * - Worker ally - Strength = Cost, Max = 1
 	 * - Rocket - Strength = 1000, Max = 1
      */
-    private static void updateRangerMap() {
-    	if (rangerMapLastUpdated == currentRound) //We have already done it
-    		return;
-    	
-    	rangerMapLastUpdated = currentRound;
-    	int rangerCount = 0;
-    	for (int z=0; z<zones; z++)
-    		rangerCount += zoneState[z].myLandUnits[UnitType.Ranger.ordinal()];
+    private static void addRangerJobs() {
+    	int rangerCount = unitCount(UnitType.Ranger);
 	    	
-    	//Add enemies
-    	LinkedList<MapLocation> targets = new LinkedList<MapLocation>();
-    	for (Unit u:enemies) {
-    		//We want to be at our attack distance from each enemy
-    		MapLocation enemyLoc = u.location().mapLocation();
-    		targets.addAll(map.allLocationsWithin(enemyLoc, 10, 50));
+    	//Add enemies - we want to be at our attack distance from each enemy
+    	MapCache.Disk targets = map.disk(10, 50);
+    	if (deferCombat) {
+    		for (Unit u:enemies) {
+    			MapLocation enemyLoc = locationOf(u);
+    			lazy.addDisk(enemyLoc.getX(), enemyLoc.getY(), targets);
+    		}
+    		lazy.ripple(rangerMap, 30, UnitType.Ranger, rangerCount, -1);
+    	} else if (clusters != null) {
+    		for (Unit u:enemies) {
+    			MapLocation enemyLoc = locationOf(u);
+    			clusters.addDisk(enemyLoc.getX(), enemyLoc.getY(), targets);
+    		}
+    		clusters.ripple(rangerMap, 30, UnitType.Ranger, rangerCount, -1);
+    	} else {
+	    	int job = fused.addJob(rangerMap, 30, UnitType.Ranger, rangerCount, -1);
+	    	for (Unit u:enemies) {
+	    		MapLocation enemyLoc = locationOf(u);
+	    		fused.addDisk(job, enemyLoc.getX(), enemyLoc.getY(), targets);
+	    	}
     	}
-
-    	ripple(rangerMap, targets, 30, UnitType.Ranger, rangerCount, -1);
     	
     	//If no enemies - explore
-    	if (enemies.size() == 0) {
-    		LinkedList<MapLocation> explore = (currentRound < 200 && enemyLocs.size() > 0)?enemyLocs:mapState.exploreZone();
-	    	ripple(rangerMap, explore, 30, UnitType.Ranger, rangerCount, -1);
+    	if (enemies.size() == 0)
+    		addExploreJob(rangerMap, UnitType.Ranger, rangerCount);
+    }
+    
+    /*
+     * Head for the enemy start position early in the game, otherwise the edge of the known map
+     * Once Earth is conquered there is nothing left to explore
+     * The edge only keeps its search from last turn if no tile changed visibility, otherwise it joins the fused search
+     */
+    private static void addExploreJob(GravityMap gravityMap, UnitType match, int max) {
+    	if (currentRound < 200 && enemyLocs.size() > 0) {
+    		for (int i=0; i<enemyLocs.size(); i++)
+    			distances.addSource(map.tileOf(enemyLocs.get(i)));
+    		distances.ripple(gravityMap, 30, match, max, -1);
+    	} else if (!conquered && mapState.newlyVisible().isEmpty() && mapState.newlyHidden().isEmpty()) { //Same zone as last turn
+    		IndexedTileSet explore = mapState.exploreZone();
+    		for (int i=0; i<explore.size(); i++)
+    			distances.addSource(explore.get(i));
+    		distances.ripple(gravityMap, 30, match, max, -1);
+    	} else if (!conquered) {
+    		IndexedTileSet explore = mapState.exploreZone();
+    		int job = fused.addJob(gravityMap, 30, match, max, -1);
+    		for (int i=0; i<explore.size(); i++)
+    			fused.addSource(job, explore.get(i));
     	}
     }
     
-    private static void updateMageMap() {
-    	if (mageMapLastUpdated == currentRound) //We have already done it
-    		return;
-    	
-    	mageMapLastUpdated = currentRound;
-    	int mageCount = 0;
-    	for (int z=0; z<zones; z++)
-    		mageCount += zoneState[z].myLandUnits[UnitType.Mage.ordinal()];
+    private static void addMageJobs() {
+    	int mageCount = unitCount(UnitType.Mage);
 	    	
-    	//Add enemies
-    	LinkedList<MapLocation> targets = new LinkedList<MapLocation>();
-    	for (Unit u:enemies) {
-    		//We want to be at our attack distance from each enemy
-    		MapLocation enemyLoc = u.location().mapLocation();
-    		targets.addAll(map.allLocationsWithin(enemyLoc, 8, 30));
+    	//Add enemies - we want to be at our attack distance from each enemy
+    	MapCache.Disk targets = map.disk(8, 30);
+    	if (deferCombat) {
+    		for (Unit u:enemies) {
+    			MapLocation enemyLoc = locationOf(u);
+    			lazy.addDisk(enemyLoc.getX(), enemyLoc.getY(), targets);
+    		}
+    		lazy.ripple(mageMap, 30, UnitType.Mage, mageCount, -1);
+    	} else {
+	    	int job = fused.addJob(mageMap, 30, UnitType.Mage, mageCount, -1);
+	    	for (Unit u:enemies) {
+	    		MapLocation enemyLoc = locationOf(u);
+	    		fused.addDisk(job, enemyLoc.getX(), enemyLoc.getY(), targets);
+	    	}
     	}
-    	ripple(mageMap, targets, 30, UnitType.Mage, mageCount, -1);
     }
     
     /*
      * Healers need to move towards damaged allies (not structures)
      * and away from enemies
      */
-    private static void updateHealerMap() {
-    	if (healerMapLastUpdated == currentRound) //We have already done it
-    		return;
-    	
-    	healerMapLastUpdated = currentRound;
-    	int healerCount = 0;
-    	for (int z=0; z<zones; z++)
-	    	healerCount += zoneState[z].myLandUnits[UnitType.Healer.ordinal()];
+    private static void addHealerJobs() {
+    	int healerCount = unitCount(UnitType.Healer);
 	    	
+    	if (deferCombat) {
+	    	for (int i=0; i<unitsToHeal.size(); i++)
+	    		lazy.addSource(map.tileOf(unitsToHeal.get(i)));
+	    	lazy.ripple(healerMap, 20, UnitType.Healer, healerCount, -1);
+	    	for (int i=0; i<combatants.size(); i++)
+	    		lazy.addSource(map.tileOf(combatants.get(i)));
+	    	lazy.ripple(healerMap, -5, UnitType.Healer, healerCount, 8);
+	    	return;
+    	}
+    	
     	//Add damaged units
-    	ripple(healerMap, unitsToHeal, 20, UnitType.Healer, healerCount, -1);
+    	int job = fused.addJob(healerMap, 20, UnitType.Healer, healerCount, -1);
+    	for (int i=0; i<unitsToHeal.size(); i++)
+    		fused.addSource(job, map.tileOf(unitsToHeal.get(i)));
     	
     	//Avoid all enemies
-    	ripple(healerMap, combatants, -5, UnitType.Healer, healerCount, 8);
+    	job = fused.addJob(healerMap, -5, UnitType.Healer, healerCount, 8);
+    	for (int i=0; i<combatants.size(); i++)
+    		fused.addSource(job, map.tileOf(combatants.get(i)));
     }
     
-    private static void updateKnightMap() {
-    	if (knightMapLastUpdated == currentRound) //We have already done it
-    		return;
-    	
-    	knightMapLastUpdated = currentRound;
-    	int knightCount = 0;
-    	for (int z=0; z<zones; z++)
-	    	knightCount += zoneState[z].myLandUnits[UnitType.Knight.ordinal()];
+    private static void addKnightJobs() {
+    	int knightCount = unitCount(UnitType.Knight);
 	    	
-    	LinkedList<MapLocation> targets = new LinkedList<MapLocation>();
     	//Add enemies
-    	for (Unit u:enemies)
-    		targets.add(u.location().mapLocation());  	
-    	ripple(knightMap, targets, 30, UnitType.Knight, knightCount, -1);
+    	if (deferCombat) {
+    		for (Unit u:enemies)
+    			lazy.addSource(locationOf(u));
+    		lazy.ripple(knightMap, 30, UnitType.Knight, knightCount, -1);
+    	} else if (clusters != null) {
+    		for (Unit u:enemies)
+    			clusters.addSource(locationOf(u));
+    		clusters.ripple(knightMap, 30, UnitType.Knight, knightCount, -1);
+    	} else {
+	    	int job = fused.addJob(knightMap, 30, UnitType.Knight, knightCount, -1);
+	    	for (Unit u:enemies)
+	    		fused.addSource(job, locationOf(u));
+    	}
     	
     	//If no enemies - explore
-    	if (enemies.size() == 0) {
-    		LinkedList<MapLocation> explore = (currentRound < 200 && enemyLocs.size() > 0)?enemyLocs:mapState.exploreZone();
-    		ripple(knightMap, explore, 30, UnitType.Knight, knightCount, -1);
-    	}
+    	if (enemies.size() == 0)
+    		addExploreJob(knightMap, UnitType.Knight, knightCount);
     }
     
     /*
@@ -815,70 +913,59 @@ public class Player {
     		return;
     	
     	workerMapLastUpdated = currentRound;
+    	fused.clear();
     	int workerCount = 0;
     	for (int z=0; z<zones; z++) {
     		ZoneState zone = zoneState[z];
     		int zoneWorkers = zone.myLandUnits[UnitType.Worker.ordinal()];
 			workerCount += zoneWorkers;
 			//Add blueprints and damaged buildings - this is usually a small list so do them individually
-			for (MapLocation m: zone.unitsToBuild) {
-				LinkedList<MapLocation> workSpace = new LinkedList<MapLocation>();
-				
-				for (MapLocation p: map.passableNeighbours(m)) {
-					Unit u = units.unitAt(p);
-					if (u == null || (!u.unitType().equals(UnitType.Factory) && !u.unitType().equals(UnitType.Rocket)))
-						workSpace.add(p);
+			for (int b=0; b<zone.unitsToBuild.size(); b++) {
+				int t = map.tileOf(zone.unitsToBuild.get(b)), workSpace = 0;
+				for (int i=map.firstPassableNeighbour(t); i<map.endPassableNeighbour(t); i++) {
+					int u = units.slot(map.passableNeighbour(i));
+					if (u < 0 || (units.type(u) != UnitType.Factory && units.type(u) != UnitType.Rocket))
+						workSpace++;
 				}
 
-				ripple(workerMap, workSpace, 20, UnitType.Worker, Math.min(zoneWorkers, workSpace.size()), -1);
+				int job = fused.addJob(workerMap, 20, UnitType.Worker, Math.min(zoneWorkers, workSpace), -1);
+				for (int i=map.firstPassableNeighbour(t); i<map.endPassableNeighbour(t); i++) {
+					int u = units.slot(map.passableNeighbour(i));
+					if (u < 0 || (units.type(u) != UnitType.Factory && units.type(u) != UnitType.Rocket))
+						fused.addSource(job, map.passableNeighbour(i));
+				}
 			}
     	}
     	
 		/*
 		 * Add Safe Karbonite deposits
-		 * Split these into group according to how much karbonite is there
+		 * Karbonite keeps them grouped according to how much karbonite is there - we just drop the dangerous ones
 		 */
-    	final int groups = 5;
-    	@SuppressWarnings("unchecked")
-		LinkedList<MapLocation>[] safe = new LinkedList[groups];
-    	for (int i=0; i<groups; i++)
-    		safe[i] = new LinkedList<MapLocation>();
-    	
-    	for (MapLocation m:karbonite.locations()) {
-    		int x = m.getX(), y = m.getY();
-    		if (mapState.danger(x, y) == 0) {
-    			long k = karbonite.karboniteAt(x, y);
-    			int group = (int)k / 10;
-    			if (group >= groups)
-    				group = groups -1;
-    			safe[group].add(m);
-    		}
+    	for (int i=0; i < Karbonite.GROUPS; i++) {
+    		safeDeposits.copy(karbonite.deposits(i));
+    		safeDeposits.andNot(mapState.dangerMask());
+    		for (int t=safeDeposits.nextSetBit(0); t>=0; t=safeDeposits.nextSetBit(t+1))
+    			distances.addSource(t);
+    		distances.ripple(workerMap, (i+1)*3, UnitType.Worker, workerCount, -1);
     	}
-    	
-    	for (int i=0; i < groups; i++)
-    		ripple(workerMap, safe[i], (i+1)*3, UnitType.Worker, workerCount, -1);
+    	fused.run();
     }
     
-    private static double[][] getGravityMap(UnitType type) {
+    private static GravityBlend getGravityMap(UnitType type) {
     	switch (type) {
 	    	case Worker:
 	    		updateWorkerMap();
-	    		return workerMap;
+	    		break;
 	    	case Ranger:
-	    		updateRangerMap();
-	    		return rangerMap;
 	    	case Mage:
-	    		updateMageMap();
-	    		return mageMap;
 	    	case Healer:
-	    		updateHealerMap();
-	    		return healerMap;
 	    	case Knight:
-	    		updateKnightMap();
-	    		return knightMap;
+	    		updateCombatMaps();
+	    		break;
 	    	default:
 	    		return null;
     	}
+    	return blends[type.ordinal()];
     }
     
     /**************************************************************************************
@@ -892,21 +979,50 @@ public class Player {
      * This is called once on the first turn
      */
 	private static void scanMap() {
-		map = new MapCache(gc.startingMap(myPlanet));
+		map = new MapCache(startingMap);
+		schedule = new Schedule(gc, FloodRound);
     	mapState = new MapState(map);
+    	rippler = new RippleEngine(map);
+    	fused = new FusedRipple(map, units, myTeam);
+    	distances = new DistanceCache(map, units, myTeam, 2L * DistanceFields * map.tiles());
+    	if (map.passableTiles().cardinality() > ClusterMapTiles) {
+    		clusters = new ClusterGraph(map, units, myTeam, ClusterSize, ClusterNearRadius);
+    	}
+    	nearby = new int[map.tiles()];
+    	safeDeposits = new TileSet(map.width(), map.height());
+    	
+    	int tiles = map.tiles();
+    	layers = new GravityLayers(tiles);
+    	rocketMap = layers.layer(GravityLayers.ROCKET);
+    	damagedMap = layers.layer(GravityLayers.HEALING);
+    	rangerMap = layers.layer(GravityLayers.RANGER);
+    	mageMap = layers.layer(GravityLayers.MAGE);
+    	healerMap = layers.layer(GravityLayers.HEALER);
+    	knightMap = layers.layer(GravityLayers.KNIGHT);
+    	workerMap = layers.layer(GravityLayers.WORKER);
     	
-    	int w = map.width(), h = map.height();
-    	rangerMap = new double[w][h];
-    	mageMap = new double[w][h];
-    	healerMap = new double[w][h];
-    	knightMap = new double[w][h];
-    	workerMap = new double[w][h]; 
-    	damagedMap = new double[w][h];
-        allMaps = new double[][][] { mageMap, rangerMap, workerMap, knightMap, healerMap, damagedMap };
+    	/*
+    	 * Each unit type is drawn by its own layer and the rocket call (workers are switched on later - see initGravityMaps)
+    	 */
+    	blends = new GravityBlend[UnitType.values().length];
+    	int[] own = { GravityLayers.WORKER, GravityLayers.KNIGHT, GravityLayers.RANGER, GravityLayers.MAGE, GravityLayers.HEALER };
+    	UnitType[] types = { UnitType.Worker, UnitType.Knight, UnitType.Ranger, UnitType.Mage, UnitType.Healer };
+    	for (int i=0; i<types.length; i++) {
+    		GravityBlend blend = layers.blend();
+    		blend.setWeight(own[i], 1);
+    		blend.setWeight(GravityLayers.ROCKET, 1);
+    		blends[types[i].ordinal()] = blend;
+    	}
+    	damagedBlend = layers.blend();
+    	damagedBlend.setWeight(GravityLayers.HEALING, 1);
+    	damagedBlend.setWeight(GravityLayers.ROCKET, 1);
 
-        MapAnalyser analysis = new MapAnalyser(gc, gc.startingMap(myPlanet), map); //Split the map into known zones
+        MapAnalyser analysis = new MapAnalyser(startingMap, map, schedule); //Split the map into known zones
     	zones = analysis.zones.size();  	
-        karbonite = new Karbonite(gc, map, zones);
+    	oracle = new DistanceOracle(map, analysis);
+    	lazy = new LazyGravity(map, units, myTeam, oracle, distances);
+        karbonite = new Karbonite(gc, startingMap, map, schedule, zones);
+        actions = new Actions(gc, map, units, karbonite);
     	
     	zoneState = new ZoneState[zones];
     	for (int z=0; z<zones; z++) {
@@ -916,25 +1032,29 @@ public class Player {
     	if (myPlanet == Planet.Mars) {
     		mars = analysis;
     	} else { //On earth we process mars to work out landing zones
-    		mars = new MapAnalyser(gc, gc.startingMap(Planet.Mars), null);
+    		mars = new MapAnalyser(gc.startingMap(Planet.Mars), null, schedule);
     	 		
     		/*
     		 * Work out if we are in the same zone as an opponent
     		 * If not we can build units best suited for mars
     		 */
     		separated = false; //Set to true if we start in a zone where the enemy isn't
-    		VecUnit start = gc.startingMap(myPlanet).getInitial_units();
+    		VecUnit start = handles.add(startingMap.getInitial_units());
     		HashSet<Integer> myZones = new HashSet<Integer>();
     		HashSet<Integer> enemyZones = new HashSet<Integer>();
     		
     		for (int i=0; i<start.size(); i++) {
-    			Unit u = start.get(i);
-    			MapLocation where = u.location().mapLocation();
+    			Unit u = handles.add(start.get(i));
+    			Location l = u.location();
+    			MapLocation m = l.mapLocation();
+    			int x = m.getX(), y = m.getY();
+    			handles.free(m);
+    			handles.free(l);
     			if (u.team() == myTeam)
-    				myZones.add(map.zone(where));
+    				myZones.add(map.zone(x, y));
     			else {
-    				enemyZones.add(map.zone(where));
-    				enemyLocs.add(where);
+    				enemyZones.add(map.zone(x, y));
+    				enemyLocs.add(map.packed(map.tile(x, y)));
     			}
     		}
     		
@@ -964,17 +1084,19 @@ public class Player {
 	 * Don't pick somewhere adjacent to another rocket
 	 */
 	private static MapLocation bestRocketLocation(MapLocation loc) {
-		for (MapLocation test: allOpenNeighbours(loc)) {
-    		if (mapState.danger(test.getX(), test.getY()) == 0) {
+		int t = map.tile(loc);
+		for (int i=map.firstPassableNeighbour(t); i<map.endPassableNeighbour(t); i++) {
+			int test = map.passableNeighbour(i);
+    		if (!units.occupied(test) && mapState.danger(test) == 0) {
     			boolean hasRocket = false;
-    			for (MapLocation m: map.passableNeighbours(test)) {
-    				Unit u = units.unitAt(m);
-    				if (u != null && u.unitType().equals(UnitType.Rocket))
+    			for (int j=map.firstPassableNeighbour(test); j<map.endPassableNeighbour(test); j++) {
+    				int u = units.slot(map.passableNeighbour(j));
+    				if (u >= 0 && units.type(u) == UnitType.Rocket)
     					hasRocket = true;
     			}
     			
     			if (!hasRocket)
-    				return test;
+    				return map.loc(test);
     		}
     	}
 
@@ -987,11 +1109,11 @@ public class Player {
 	 * Returns the location score from the given gravity map
 	 * If the unit type is a ranger then we ignore the danger component of the score some of the time
 	 */
-	private static double locationScore(double[][] gravityMap, int x, int y, Unit u) {
+	private static double locationScore(GravityBlend gravityMap, int tile, Unit u) {
 		if (ignoreDanger)
-			return gravityMap[x][y] + mapState.danger(x, y);
+			return gravityMap.get(tile) + noise(tile);
 
-		return gravityMap[x][y];
+		return gravity(gravityMap, tile);
 	}
 	
     /*
@@ -1000,33 +1122,38 @@ public class Player {
      * If the unit supplied is a structure we are not trying to move it - but unload a unit from it
      * In this case we cannot pick directions containing another structure
      */
-    private static Direction bestMove(Unit t, double[][] gravityMap, boolean move) {
+    private static Direction bestMove(Unit t, GravityBlend gravityMap, boolean move) {
     	Direction best = null;
     	
-    	if (!t.location().isOnMap())
+    	if (!isOnMap(t))
     		return null;
     	
     	if (t.health() * 2 < t.maxHealth() && healers.size() > 0 && t.unitType() != UnitType.Healer) //We've lost more than half our health
-    		gravityMap = damagedMap;
+    		gravityMap = damagedBlend;
   	
-    	MapLocation myLoc = t.location().mapLocation();
+    	MapLocation myLoc = locationOf(t);
+    	int here = map.tile(myLoc);
     	boolean isStructure =  (t.unitType() == UnitType.Factory || t.unitType() == UnitType.Rocket);   	
-    	double bestScore = (move?-100000:locationScore(gravityMap, myLoc.getX(), myLoc.getY(), t));
-    	LinkedList<MapLocation> options = null;
+    	double bestScore = (move?-100000:locationScore(gravityMap, here, t));
+    	int bestTile = -1;
     	
     	//debug(4, "bestMove from " + myLoc + " current score " + bestScore);
-		if (isStructure) //We are looking to unload from here (as a structure can't move!)
-			options = allOpenNeighbours(myLoc);
-		else
-			options = allMoveNeighbours(myLoc);
-    	for (MapLocation test: options) {
-    		Direction d = myLoc.directionTo(test);
-    		double score = locationScore(gravityMap, test.getX(), test.getY(), t);
+    	for (int i=map.firstPassableNeighbour(here); i<map.endPassableNeighbour(here); i++) {
+    		int test = map.passableNeighbour(i);
+    		if (isStructure) { //We are looking to unload from here (as a structure can't move!)
+    			if (units.occupied(test))
+    				continue;
+    		} else if (!canMoveTo(test))
+    			continue;
+    		double score = locationScore(gravityMap, test, t);
     		if (score > bestScore) {
     			bestScore = score;
-    			best = d;
+    			bestTile = test;
     		}
     	}
+    	
+    	if (bestTile >= 0)
+    		best = map.directionTo(here, bestTile);
 
     	//debug (4, "is " + best + " with a score of " + bestScore);
 		return best;
@@ -1036,7 +1163,7 @@ public class Player {
      * Decide what to research next based on the current strategy and game position
      */
     private static void updateResearch() {
-    	ResearchInfo ri = gc.researchInfo();
+    	ResearchInfo ri = handles.add(gc.researchInfo());
     	
     	if (myPlanet != Planet.Earth || ri.hasNextInQueue())
     		return;
@@ -1054,17 +1181,20 @@ public class Player {
     
 
     private static int[] mySpaceUnits = new int[UnitType.values().length]; //Counts of how many units we have indexed by unit type (ordinal)
-    private static LinkedList<MapLocation> enemyLocs = new LinkedList<MapLocation>(); //Start position of the enemy - used in place of the exploreZone at the start of the game
+    private static IntList enemyLocs = new IntList(); //Start position of the enemy - used in place of the exploreZone at the start of the game
     private static boolean separated = false; //Set to true if we start off in different zones to the enemy
     private static LinkedList<Unit> enemies = new LinkedList<Unit>(); //List of all enemy units in sight
     private static LinkedList<Unit> workers = new LinkedList<Unit>(); //List of all our workers
-    private static LinkedList<MapLocation> combatants = new LinkedList<MapLocation>(); //List of all combat worthy enemy units in sight
-    private static LinkedList<MapLocation> enemyStructures = new LinkedList<MapLocation>();
-    private static LinkedList<MapLocation> enemyHealers = new LinkedList<MapLocation>();
-    private static LinkedList<MapLocation> enemyRangers = new LinkedList<MapLocation>();
-    private static LinkedList<MapLocation> enemyOthers = new LinkedList<MapLocation>();
-    private static LinkedList<MapLocation> healers = new LinkedList<MapLocation>();
-    private static LinkedList<MapLocation> unitsToHeal = new LinkedList<MapLocation>(); //List of units that need healing
+    /*
+     * Locations are packed ints (see Loc) - a MapLocation is only made if one is handed to the engine
+     */
+    private static IntList combatants = new IntList(); //List of all combat worthy enemy units in sight
+    private static IntList enemyStructures = new IntList();
+    private static IntList enemyHealers = new IntList();
+    private static IntList enemyRangers = new IntList();
+    private static IntList enemyOthers = new IntList();
+    private static IntList healers = new IntList();
+    private static IntList unitsToHeal = new IntList(); //List of units that need healing
     
     /*
      * Loop through the units we are aware of and update our cache
@@ -1072,12 +1202,13 @@ public class Player {
      */
     private static void updateUnits() {
         units.updateCache(); //All the units we can see
-        unitsInSpace = gc.unitsInSpace(); //All the units in space
+        unitsInSpace = handles.add(gc.unitsInSpace()); //All the units in space
         
         for (int z=0; z<zones; z++)
         	zoneState[z].clear();
     	Arrays.fill(mySpaceUnits, 0);
     	mapState.clear();
+    	mapState.startVisibility();
 
     	enemies.clear();
     	combatants.clear();
@@ -1089,46 +1220,47 @@ public class Player {
     	workers.clear();
     	unitsToHeal.clear();
 		
-    	VecUnit known = units.allUnits();
-    	for (int i = 0; i < known.size(); i++) {
-            Unit unit = known.get(i);
-            
-            if (unit.location().isOnMap()) {
-        		MapLocation here = unit.location().mapLocation();
-        		ZoneState zone = zoneState[map.zone(here)];
+    	for (int slot = 0; slot < units.slots(); slot++) {
+            if (units.onMap(slot)) {
+            	Unit unit = units.unit(slot);
+            	UnitType type = units.type(slot);
+            	int x = units.x(slot), y = units.y(slot);
+        		int here = map.packed(map.tile(x, y));
+        		ZoneState zone = zoneState[map.zone(x, y)];
         		
-            	if (unit.team() == myTeam) {
-            		zone.myLandUnits[unit.unitType().ordinal()]++;
-    		 		mapState.addVisibility(map.allLocationsWithin(here, -1, unit.visionRange()));
+            	if (units.team(slot) == myTeam) {
+            		zone.myLandUnits[type.ordinal()]++;
+    		 		mapState.observe(units.id(slot), x, y, unit.visionRange());
             		
-            		if (unit.unitType().equals(UnitType.Factory) || unit.unitType().equals(UnitType.Rocket)) {
-            			if (unit.structureIsBuilt() == 0 || unit.health() < unit.maxHealth())
+            		if (type == UnitType.Factory || type == UnitType.Rocket) {
+            			if (unit.structureIsBuilt() == 0 || units.health(slot) < units.maxHealth(slot))
             				zone.unitsToBuild.add(here);
 	
-            			if (unit.structureIsBuilt() > 0 && unit.unitType().equals(UnitType.Rocket) && unit.rocketIsUsed() == 0)
+            			if (unit.structureIsBuilt() > 0 && type == UnitType.Rocket && unit.rocketIsUsed() == 0)
             				zone.rockets.add(unit);
             			
-            			VecUnitID garrison = unit.structureGarrison();
+            			VecUnitID garrison = handles.add(unit.structureGarrison());
             			for (int j=0; j<garrison.size(); j++) {
             				int id = garrison.get(j);
-            				zone.myLandUnits[gc.unit(id).unitType().ordinal()]++;
+            				zone.myLandUnits[units.typeOf(id).ordinal()]++;
             			}
             			
-            			if (unit.unitType().equals(UnitType.Factory) && unit.isFactoryProducing() > 0) //See what we are producing and count that
+            			if (type == UnitType.Factory && unit.isFactoryProducing() > 0) //See what we are producing and count that
             				zone.myLandUnits[unit.factoryUnitType().ordinal()]++;
             		} else {
-                		if (unit.unitType() == UnitType.Healer)
+                		if (type == UnitType.Healer)
                 			healers.add(here);
-                		if (unit.unitType() == UnitType.Worker)
+                		if (type == UnitType.Worker)
                 			workers.add(unit);
-                		if (unit.health() < unit.maxHealth())
+                		if (units.health(slot) < units.maxHealth(slot))
             				unitsToHeal.add(here);
             		}
             	} else { //enemies
             		enemies.add(unit);
-            		zone.enemyUnits[unit.unitType().ordinal()]++;
+            		zone.enemyUnits[type.ordinal()]++;
+            		int id = units.id(slot);
 
-            		switch (unit.unitType()) {
+            		switch (type) {
 	            		case Factory:
 	            			enemyStructures.add(here);
 	            			if (unit.isFactoryProducing() > 0)
@@ -1137,39 +1269,22 @@ public class Player {
 	            		case Ranger:
 	            			combatants.add(here);
 	            			enemyRangers.add(here);
-	            			for (MapLocation m:map.allLocationsWithin(here, unit.rangerCannotAttackRange(), unit.attackRange())) {
-	            				int x = m.getX(), y = m.getY();
-	            				mapState.addDanger(x, y, unit.damage());
-	            			}
+	            			mapState.addThreat(id, UnitType.Ranger, x, y, unit.rangerCannotAttackRange(), unit.attackRange(), unit.damage());
 	            			break;
 	            		case Knight: //Increase radius to 10 to account for them moving then attacking
 	            			combatants.add(here);
 	            			enemyOthers.add(here);
-	            			for (MapLocation m:map.allLocationsWithin(here, -1, 10)) {
-	            				int x = m.getX(), y = m.getY();
-	            				mapState.addDanger(x, y, unit.damage()/2);
-	            			}
-	            			for (MapLocation m:map.passableNeighbours(here)) {
-	            				int x = m.getX(), y = m.getY();
-	            				mapState.addDanger(x, y, unit.damage()/2);
-	            			}
+	            			mapState.addThreat(id, UnitType.Knight, x, y, -1, 10, unit.damage()/2);
 	            			break;
 	            		case Mage: //TODO - Increase radius to account for splash damage
 	            			combatants.add(here);
 	            			enemyOthers.add(here);
-	            			for (MapLocation m:map.allLocationsWithin(here, -1, unit.attackRange())) {
-	            				int x = m.getX(), y = m.getY();
-	            				mapState.addDanger(x, y, unit.damage());
-	            			}
+	            			mapState.addThreat(id, UnitType.Mage, x, y, -1, unit.attackRange(), unit.damage());
 	            			break;
 	            		case Rocket: //These damage neighbours when they take off (so only dangerous on Earth)
 	            			enemyStructures.add(here);
-	            			if (myPlanet == Planet.Earth && unit.structureIsBuilt() > 0) { 
-	            				for (MapLocation m:map.passableNeighbours(here)) {
-		            				int x = m.getX(), y = m.getY();
-		            				mapState.addDanger(x, y, 100);
-		            			}
-	            			}
+	            			if (myPlanet == Planet.Earth && unit.structureIsBuilt() > 0)
+	            				mapState.addThreat(id, UnitType.Rocket, x, y, 0, 2, 100);
 	            			break;
 	            		case Healer:
 	            			enemyHealers.add(here);
@@ -1182,6 +1297,8 @@ public class Player {
             }
     	}
     	
+    	mapState.endVisibility();
+    	
     	/*
     	 * Adjust our strategy according to enemies seen
     	 */
@@ -1206,28 +1323,22 @@ public class Player {
     	}
     	
     	for (int i=0; i<unitsInSpace.size(); i++) {
-    		Unit unit = unitsInSpace.get(i);
+    		Unit unit = handles.add(unitsInSpace.get(i));
     		mySpaceUnits[unit.unitType().ordinal()]++;
     	}
     	
     	/*
     	 * If we have seen the enemy starting location remove it from the list as we no longer want to explore it
     	 */
-    	for (Iterator<MapLocation> iterator = enemyLocs.iterator(); iterator.hasNext();) {
-    	    MapLocation m = iterator.next();
-    	    int x = m.getX(), y = m.getY();
-    	    if (mapState.visible(x, y))
-    			iterator.remove();
+    	for (int i=0; i<enemyLocs.size(); i++) {
+    	    int m = enemyLocs.get(i);
+    	    if (mapState.visible(Loc.x(m), Loc.y(m)))
+    			enemyLocs.removeAt(i--);
     	}
     	
     	/*
-    	 * Produce the list of locations that are unseen but next to a location we can see
-    	 * i.e. the border of known space
-    	 * If we have no units this list is empty
+    	 * The explore zone (the border of known space) was brought up to date as the visibility was updated
     	 */
-    	if (!conquered && units.allUnits().size() > 0)
-			mapState.explore();
-    	
     	if (!conquered && myPlanet == Planet.Earth && mapState.explored() &&
     			enemies.size() == 0 && units.allUnits().size() > 0) {
     		conquered = true;
@@ -1237,14 +1348,13 @@ public class Player {
     	//Look for any rockets arriving on Mars in the next 10 turns and mark the tiles
     	//around the landing site as dangerous
     	if (myPlanet == Planet.Mars) {
+    		RocketLandingInfo landingInfo = handles.add(gc.rocketLandings());
     		for (int r=0; r<10; r++) {
-	    		VecRocketLanding landings = gc.rocketLandings().landingsOn(currentRound+r);
+	    		VecRocketLanding landings = handles.add(landingInfo.landingsOn(currentRound+r));
 	    		for (int l=0; l<landings.size(); l++) {
-	    			MapLocation site = landings.get(l).getDestination();
+	    			MapLocation site = handles.add(handles.add(landings.get(l)).getDestination());
 	    			//debug(2, "Clearing area for landing on round " + (currentRound+r) + " at " + site);
-	    			mapState.addDanger(site.getX(), site.getY(), 100); //TODO find real value from interface
-	    			for (MapLocation m:map.neighbours(site))
-	    				mapState.addDanger(m.getX(), m.getY(), 100);
+	    			mapState.addDanger(site.getX(), site.getY(), -1, 2, 100); //TODO find real value from interface
 	    		}
     		}
     	}
@@ -1255,7 +1365,7 @@ public class Player {
     }
     
     private static void manageWorker(Unit unit) {
-    	if (!unit.unitType().equals(UnitType.Worker) || !unit.location().isOnMap())
+    	if (!unit.unitType().equals(UnitType.Worker) || !isOnMap(unit))
     		return;
     	
     	int id = unit.id();
@@ -1263,22 +1373,23 @@ public class Player {
     	//Do we want to move to a better location
         unit = moveUnit(unit, false);            
         
-		MapLocation loc = unit.location().mapLocation();
+		MapLocation loc = locationOf(unit);
 		ZoneState zone = zoneState[map.zone(loc)];
 		
 		//Can we help build or repair something
-    	for (MapLocation m:map.passableNeighbours(loc)) {			
-			Unit other = units.unitAt(m);
-			if (other != null && other.team() == myTeam &&
-					(other.unitType() == UnitType.Factory || other.unitType() == UnitType.Rocket)) {
-				if (gc.canBuild(id, other.id())) {
-					gc.build(id, other.id());
-					unit = units.updateUnit(id);
+		int here = map.tile(loc);
+    	for (int i=map.firstPassableNeighbour(here); i<map.endPassableNeighbour(here); i++) {
+			int other = units.slot(map.passableNeighbour(i));
+			if (other >= 0 && units.team(other) == myTeam &&
+					(units.type(other) == UnitType.Factory || units.type(other) == UnitType.Rocket)) {
+				int otherId = units.id(other);
+				boolean damaged = (units.health(other) < units.maxHealth(other));
+				if (gc.canBuild(id, otherId)) {
+					actions.build(id, otherId);
 					//debug(2, "worker building");
 				}
-				if (other.health() < other.maxHealth() && gc.canRepair(id, other.id())) {
-					gc.repair(id, other.id());
-					unit = units.updateUnit(id);
+				if (damaged && gc.canRepair(id, otherId)) {
+					actions.repair(id, otherId);
   					//debug(2, "worker is repairing");
 				}
 			}
@@ -1288,7 +1399,7 @@ public class Player {
 		 * Now check to see if we want to blueprint a rocket
 		 */		
     	long k = gc.karbonite(); 	   	   
-		if (unit.workerHasActed() == 0 && myPlanet == Planet.Earth && zone.rocketsNeeded(currentRound) > 0 &&
+		if (!units.hasActed(units.slotOf(id)) && myPlanet == Planet.Earth && zone.rocketsNeeded(currentRound) > 0 &&
 				k >= bc.bcUnitTypeBlueprintCost(UnitType.Rocket)) {
 	    	MapLocation buildLoc = null;
 			
@@ -1298,8 +1409,8 @@ public class Player {
 	    	 */   
 	    	if (zone.myLandUnits[UnitType.Rocket.ordinal()] == 0) { //We have no rockets but need one
 		    	int spaces = 0;
-		    	for (MapLocation m: map.passableNeighbours(loc)) {
-		    		if (units.unitAt(m) == null)
+		    	for (int i=map.firstPassableNeighbour(here); i<map.endPassableNeighbour(here); i++) {
+		    		if (!units.occupied(map.passableNeighbour(i)))
 		    			spaces++;
 		    	}
 		    	
@@ -1314,9 +1425,8 @@ public class Player {
 		    		}
 		    		if (suicide != null) {
 		    			//debug(2, "Destroying " + suicide.unitType() + " to make room for a new structure");
-		    			buildLoc = suicide.location().mapLocation();
-		    			units.removeUnit(buildLoc);
-		    			gc.disintegrateUnit(suicide.id());
+		    			buildLoc = locationOf(suicide);
+		    			actions.disintegrateUnit(suicide.id());
 		    		}
 		    	}
 	    	}
@@ -1325,11 +1435,9 @@ public class Player {
 	    		buildLoc = bestRocketLocation(loc);		
 
 	    	if (buildLoc != null) {
-	    		Direction dir = loc.directionTo(buildLoc);
+	    		Direction dir = map.directionTo(loc, buildLoc);
 				if (gc.canBlueprint(id, UnitType.Rocket, dir)) {
-					gc.blueprint(id, UnitType.Rocket, dir);
-					units.updateUnit(buildLoc);
-					unit = units.updateUnit(id);
+					actions.blueprint(id, UnitType.Rocket, dir);
 					//debug(2, "worker blueprinting rocket");
 					zone.myLandUnits[UnitType.Rocket.ordinal()]++;
 				}
@@ -1337,23 +1445,23 @@ public class Player {
 		}
 		
 		//Can we Harvest? Pick the location with the most karbonite
-		if (unit.workerHasActed() == 0) {
+		if (!units.hasActed(units.slotOf(id))) {
 			long most = karbonite.karboniteAt(loc);
-			MapLocation best = loc;
-			for (MapLocation h: map.neighbours(loc)) {
-				if (mapState.visible(h.getX(), h.getY()) && karbonite.karboniteAt(h) > most) {
-					most = karbonite.karboniteAt(h);
+			int best = here;
+			for (int i=map.firstNeighbour(here); i<map.endNeighbour(here); i++) {
+				int h = map.neighbour(i);
+				int hx = map.x(h), hy = map.y(h);
+				if (mapState.visible(hx, hy) && karbonite.karboniteAt(hx, hy) > most) {
+					most = karbonite.karboniteAt(hx, hy);
 					best = h;
 				}
 			}
 			
 			if (most > 0) {
-				Direction d = loc.directionTo(best);
+				Direction d = map.directionTo(here, best);
 				if (gc.canHarvest(id, d)) {
-					gc.harvest(id, d);
-					unit = units.updateUnit(id);
+					actions.harvest(id, d);
 					//debug(2, "worker harvesting");
-					karbonite.harvest(best, unit);
 				}
 			}
 		}
@@ -1370,11 +1478,9 @@ public class Player {
 		//We can replicate even if we have acted
     	Direction dir = bestMove(unit, getGravityMap(unit.unitType()), true);
     	if (dir != null && replicate && gc.canReplicate(id, dir)) {
-    		gc.replicate(id, dir);
+    		Unit newWorker = actions.replicate(id, dir);
     		//debug(2, "worker replicating");
-    		unit = units.updateUnit(id);
     		zone.myLandUnits[UnitType.Worker.ordinal()]++;
-    		Unit newWorker = units.updateUnit(loc.add(dir));
     		processUnit(newWorker);
     	}
       	
@@ -1422,16 +1528,17 @@ public class Player {
      * Pick a random location in the current zone
      * Valid landing sites are removed from the zone once a rocket has taken off
      * TODO - prioritise locations with more neighbours for faster unloading
+     * Returns a packed location on Mars (see Loc) or Loc.NONE if there is nowhere to go
      */
-    private static MapLocation launchDestination() {
+    private static int launchDestination() {
     	if (marsZone < 0) //Mars is full!
-    		return null;
+    		return Loc.NONE;
     	
     	//Pick a random tile in the given zone
     	MapZone zone = mars.zones.get(marsZone);
     	int size = zone.landingSites.size();
     	if (size == 0)
-    		return null;
+    		return Loc.NONE;
     	
     	return zone.landingSites.get(randomness.nextInt(size));  	
     }
@@ -1458,59 +1565,51 @@ public class Player {
     	int id = unit.id();
     	if (myPlanet == Planet.Earth) {
     		//Check to see if we are full
-    		MapLocation here = unit.location().mapLocation();
-    		MapLocation dest = launchDestination();
-    		if (dest != null && gc.canLaunchRocket(id, dest)) {
-    			long arrivalNow = gc.orbitPattern().duration(currentRound);
-    			long arrivalNext = 1+gc.orbitPattern().duration(currentRound+1);
-    			boolean full = (unit.structureGarrison().size() >= unit.structureMaxCapacity());
-    			boolean takingDamage = (unit.structureGarrison().size() > 0 && unit.health() < unit.maxHealth());
-    			if ((full && arrivalNow <= arrivalNext) || takingDamage || currentRound == FloodRound) {
+    		MapLocation here = locationOf(unit);
+    		int dest = launchDestination();
+    		MapLocation destination = (dest == Loc.NONE)?null:handles.add(Loc.toMapLocation(dest)); //Mars isn't in our map cache
+    		if (destination != null && gc.canLaunchRocket(id, destination)) {
+    			long garrisoned = handles.add(unit.structureGarrison()).size();
+    			boolean full = (garrisoned >= unit.structureMaxCapacity());
+    			boolean takingDamage = (garrisoned > 0 && unit.health() < unit.maxHealth());
+    			if ((full && schedule.launchNow(currentRound)) || takingDamage || currentRound == FloodRound) {
     				//Load everyone we can
-    				for (MapLocation m:map.passableNeighbours(here)) {
-    					Unit u = units.unitAt(m);
-    					if (u != null && gc.canLoad(id, u.id())) {
-    						gc.load(id, u.id());
+    				int t = map.tile(here);
+    				for (int i=map.firstPassableNeighbour(t); i<map.endPassableNeighbour(t); i++) {
+    					int u = units.slot(map.passableNeighbour(i));
+    					if (u >= 0 && gc.canLoad(id, units.id(u))) {
+    						actions.load(id, units.id(u));
     						//debug(2, "Rocket is loading " + u.unitType() + " before launch");
-    						units.removeUnit(m);
-    						unit = units.updateUnit(id);
     					}
     				}
     				//debug(2, "Launching rocket " + id + " to " + dest);
-    				gc.launchRocket(id, dest);
-    				units.removeUnit(here);
+    				actions.launchRocket(id, destination);
     				mars.zones.get(marsZone).landingSites.remove(dest);
     				nextZone();
     				return;
     			}
     		}
     		
-    		long garrisoned = unit.structureGarrison().size();
+    		long garrisoned = handles.add(unit.structureGarrison()).size();
     		//If we haven't sent out a message for units to come to us we unload them as they are probably passing through
-    		if (garrisoned > 0 && rangerMap[here.getX()][here.getY()] < 1000) {
+    		if (garrisoned > 0 && gravity(blends[UnitType.Ranger.ordinal()], map.tile(here)) < 1000) {
     			while (garrisoned > 0) {
 	    			Direction dir = bestMove(unit, getGravityMap(UnitType.Worker), true);
 	    			if (dir != null && gc.canUnload(unit.id(), dir)) {
-	    				gc.unload(unit.id(), dir);
 	    				//debug(2, "Unloading from rocket - passing through");
-	    				MapLocation where = unit.location().mapLocation().add(dir);	        			
-	    	    		processUnit(units.updateUnit(where));
+	    	    		processUnit(actions.unload(id, dir));
 	    			}
 	    			garrisoned--;
     			}
-    			unit = units.updateUnit(unit.id()); //Update garrison info
     		}
     	} else { //On Mars our only job is to unload units
-    		if (unit.structureGarrison().size() > 0) {
+    		if (handles.add(unit.structureGarrison()).size() > 0) {
 	    		for (Direction dir:Direction.values()) {
 					if (dir != Direction.Center && gc.canUnload(id, dir)) {
-	    				gc.unload(id, dir);   		    	
 	    		    	//debug(2, "unloading from rocket");
-	    		    	MapLocation where = unit.location().mapLocation().add(dir);
-	    	    		processUnit(units.updateUnit(where));
+	    	    		processUnit(actions.unload(id, dir));
 					}
 				}
-	    		unit = units.updateUnit(unit.id()); //Update garrison info
     		}
     	}
     }
@@ -1525,10 +1624,10 @@ public class Player {
     		return;
     	
     	int fid = unit.id();
-    	MapLocation loc = unit.location().mapLocation();
+    	MapLocation loc = locationOf(unit);
     	int zoneId = map.zone(loc);
     	ZoneState zone = zoneState[zoneId];
-    	long garrisoned = unit.structureGarrison().size();
+    	long garrisoned = handles.add(unit.structureGarrison()).size();
 
 		/*
 		 * Unload units if possible
@@ -1539,22 +1638,17 @@ public class Player {
 			if (dir == null) { //No room - try to make space as we have probably got a combat unit inside
 				for (Unit u: senseNearbyUnits(loc, 2, myTeam)) {
 					if (u.unitType() == UnitType.Worker && gc.canLoad(fid, u.id())) {
-						dir = loc.directionTo(u.location().mapLocation());
-						units.removeUnit(u.location().mapLocation());
-						gc.load(fid, u.id());
-						unit = units.updateUnit(fid);
+						dir = map.directionTo(loc, locationOf(u));
+						actions.load(fid, u.id());
 						break;
 					}	
 				}
 			}
 			if (dir != null && gc.canUnload(unit.id(), dir)) {
-				gc.unload(unit.id(), dir);
 				//debug(2, "Unloading from factory");
-				MapLocation where = unit.location().mapLocation().add(dir);	        			
-	    		processUnit(units.updateUnit(where));
+	    		processUnit(actions.unload(fid, dir));
 			}
 			garrisoned--;
-			unit = units.updateUnit(fid);
 		}
     	
     	/*
@@ -1587,31 +1681,40 @@ public class Player {
     		produce = UnitType.Mage;  		
     	
     	if ((produce == UnitType.Worker || !haltProduction) && gc.canProduceRobot(fid, produce)) {
-			gc.produceRobot(fid, produce);
+			actions.produceRobot(fid, produce);
 			//debug(2, "Factory starts producing a " + produce);
 		}
-
-    	unit = units.updateUnit(fid); //Update garrison info
     }
     
     private static LinkedList<Unit> overchargeHealers(Unit unit) {
     	LinkedList<Unit> helpers = new LinkedList<Unit>();
+    	MapLocation here = locationOf(unit);
     	
-    	for (Unit h: senseNearbyUnits(unit.location().mapLocation(), 30, myTeam)) {
-    		if (h.unitType().equals(UnitType.Healer) && gc.isOverchargeReady(h.id())) {
-    			helpers.add(h);
-    		}
+    	int found = units.within(here.getX(), here.getY(), 30, myTeam, UnitType.Healer, nearby);
+    	for (int i=0; i<found; i++) {
+    		if (gc.isOverchargeReady(units.id(nearby[i])))
+    			helpers.add(units.unit(nearby[i]));
     	}
     	
     	return helpers;
     }
     
+    /*
+     * The unit that is the most moves away from me - ties go to the one furthest as the crow flies
+     */
     private static Unit furthestUnit(Unit me, LinkedList<Unit> others) {
     	Unit furthest = null;
+    	MapLocation here = locationOf(me);
+    	int mostMoves = 0, mostSquared = 0;
     	for (Unit u: others) {
-    		if (furthest == null || me.location().mapLocation().distanceSquaredTo(u.location().mapLocation()) > 
-    									me.location().mapLocation().distanceSquaredTo(furthest.location().mapLocation()))
+    		MapLocation there = locationOf(u);
+    		int moves = oracle.distance(map.tile(here), map.tile(there));
+    		int squared = map.distanceSquared(here, there);
+    		if (furthest == null || moves > mostMoves || (moves == mostMoves && squared > mostSquared)) {
     			furthest = u;
+    			mostMoves = moves;
+    			mostSquared = squared;
+    		}
     	}
     	return furthest;
     }
@@ -1620,14 +1723,15 @@ public class Player {
      * Check to see if there are enough healers in range to allow us to get in multiple attacks
      */
     private static boolean doOvercharge(Unit unit) {
-    	if (gc.researchInfo().getLevel(UnitType.Healer) < 3)
+    	if (handles.add(gc.researchInfo()).getLevel(UnitType.Healer) < 3)
     		return false; 	
     	
     	LinkedList<Unit> helpers = overchargeHealers(unit);
     	if (helpers.size() < 3)
     		return false;
     	
-    	int targets = senseNearbyUnits(unit.location().mapLocation(), 70, otherTeam).size();
+    	MapLocation here = locationOf(unit);
+    	int targets = units.countWithin(here.getX(), here.getY(), 70, otherTeam, null);
     	
     	if (targets < 3)
     		return false;
@@ -1642,36 +1746,36 @@ public class Player {
     private static void manageMage(Unit unit) {
     	int id = unit.id();
     	
-    	if (!unit.location().isOnMap())
+    	if (!isOnMap(unit))
     		return;
     	
     	boolean overcharge = doOvercharge(unit);   	
     	if (overcharge)
     		ignoreDanger = true;
     	
-    	long initialHeat = unit.attackHeat() + unit.movementHeat();
+    	long initialHeat = units.attackHeat(units.slotOf(id)) + units.movementHeat(units.slotOf(id));
     	if (unit.isAbilityUnlocked() > 0)
     		initialHeat += unit.abilityCooldown();
     	
     	do {
 	    	//Do we want to blink to a better location
 	    	if (gc.isAttackReady(id) && gc.isBlinkReady(id)) {
-	    		MapLocation here = unit.location().mapLocation();
+	    		MapLocation here = locationOf(unit);
 	    		//We can blink to best location in sight range
-	    		updateMageMap();
-	    		double bestScore = mageMap[here.getX()][here.getY()];
+	    		updateCombatMaps();
+	    		double bestScore = gravity(blends[UnitType.Mage.ordinal()], map.tile(here));
 	    		MapLocation bestOption = here;
-	    		for (MapLocation o:map.allLocationsWithin(here, -1, unit.abilityRange())) {
-	    			if (mageMap[o.getX()][o.getY()] > bestScore && map.passable(o) &&
-	    					mapState.visible(o.getX(), o.getY()) &&	units.unitAt(o) == null) {
-	    				bestScore = mageMap[o.getX()][o.getY()];
-	    				bestOption = o;
+	    		MapCache.Disk blink = map.disk(-1, unit.abilityRange());
+	    		for (int i=0; i<blink.size; i++) {
+	    			int x = here.getX() + blink.dx[i], y = here.getY() + blink.dy[i];
+	    			if (map.onMap(x, y) && map.passable(x, y) && gravity(blends[UnitType.Mage.ordinal()], map.tile(x, y)) > bestScore &&
+	    					mapState.visible(x, y) && units.unitAt(x, y) == null) {
+	    				bestScore = gravity(blends[UnitType.Mage.ordinal()], map.tile(x, y));
+	    				bestOption = map.loc(x, y);
 	    			}
 	    		}
-	    		if (here.distanceSquaredTo(bestOption) > (overcharge?0:2)) {
-	    			units.removeUnit(here);
-	    			gc.blink(id, bestOption);
-	    			unit = units.updateUnit(id);
+	    		if (map.distanceSquared(here, bestOption) > (overcharge?0:2)) {
+	    			actions.blink(id, bestOption);
 	    			//debug(2, "Mage is blinking to " + bestOption);
 	    		}
 	    	}
@@ -1681,7 +1785,7 @@ public class Player {
 	    		break; //We killed ourself
 	    	
 	        unit = moveUnit(unit, true);
-	        if (!unit.location().isOnMap())
+	        if (!isOnMap(unit))
 	        	break;
 
 	    	unit = splashAttack(unit);
@@ -1690,7 +1794,7 @@ public class Player {
 	        
 	        if (overcharge) {
 	        	//Check to see if we did anything (moved, blinked, fired)
-	        	long myHeat = unit.attackHeat() + unit.movementHeat();
+	        	long myHeat = units.attackHeat(units.slotOf(id)) + units.movementHeat(units.slotOf(id)); //Kept up to date by the actions
 	        	if (unit.isAbilityUnlocked() > 0)
 	        		myHeat += unit.abilityCooldown();
 	        	
@@ -1699,11 +1803,9 @@ public class Player {
 	        	else {
 		        	Unit helper = furthestUnit(unit, overchargeHealers(unit));
 		        	if (helper != null) {
-		        		gc.overcharge(helper.id(), unit.id());
+		        		actions.overcharge(helper.id(), unit.id());
 		        		initialHeat = 0; //These are reset by the overcharge
-		        		//debug(1, currentRound + ": Overcharging mage @ " + unit.location().mapLocation());
-		        		units.updateUnit(helper.id());
-		        		unit = units.updateUnit(unit.id());
+		        		//debug(1, currentRound + ": Overcharging mage @ " + locationOf(unit));
 		        	} else
 		        		overcharge = false;
 	        	}
@@ -1719,7 +1821,7 @@ public class Player {
      * As a combat unit we attack enemies and scout
      */
     private static void manageRanger(Unit unit) {
-    	if (!unit.location().isOnMap())
+    	if (!isOnMap(unit))
     		return;
 
     	/*
@@ -1743,7 +1845,7 @@ public class Player {
     	 */   
     	
     	
-    	MapLocation here = unit.location().mapLocation();
+    	MapLocation here = locationOf(unit);
     	boolean inDanger = (mapState.danger(here) > 0);
     	boolean canAttack = gc.isAttackReady(unit.id());
     	boolean attacked = false;
@@ -1764,8 +1866,7 @@ public class Player {
     			unit.isAbilityUnlocked() > 0 && gc.isBeginSnipeReady(unit.id())) {
     		MapLocation target = bestSnipeTarget(enemies);
     		if (gc.canBeginSnipe(unit.id(), target)) {
-    			gc.beginSnipe(unit.id(), target);
-    			unit = units.updateUnit(unit.id());
+    			actions.beginSnipe(unit.id(), target);
     			sniping = true;
     			//debug(2, "Sniping on " + target);
     			return;
@@ -1776,29 +1877,30 @@ public class Player {
 			ignoreDanger = true;
 		
         unit = moveUnit(unit, true);
-        if (unit.location().isOnMap())
+        if (isOnMap(unit))
         	attackWeakest(unit);
         
         ignoreDanger = false; //Reset the global!
     }
     
     private static void manageKnight(Unit unit) {
-    	if (!unit.location().isOnMap())
+    	if (!isOnMap(unit))
     		return;
     	
     	ignoreDanger = true;
     	if (unit.abilityHeat() < 10 && unit.isAbilityUnlocked() > 0) { //Check for javelin targets
         	int target = bestJavelinTarget(unit);
         	if (target > 0 && gc.canJavelin(unit.id(), target)) {
-        		gc.javelin(unit.id(), target);
+        		actions.javelin(unit.id(), target);
         		//debug(2, "Knight is throwing a javelin");
-        		unit = units.updateUnit(unit.id());
+        		if (!units.alive(target))
+        			mapState.removeThreat(target);
         	}
         }
     	
     	unit = attackWeakest(unit); 
         unit = moveUnit(unit, true);
-        if (unit.location().isOnMap())
+        if (isOnMap(unit))
     		unit = attackWeakest(unit); 
         ignoreDanger = false;
     }
@@ -1809,7 +1911,7 @@ public class Player {
      * We don't fight so we heal anyone in range
      */
     private static void manageHealer(Unit unit) {
-    	if (!unit.location().isOnMap())
+    	if (!isOnMap(unit))
     		return;
     	
     	unit = moveUnit(unit, false);
@@ -1818,7 +1920,7 @@ public class Player {
     		//Pick the unit with the most damage in range
     		long mostDamage = -1;
     		Unit unitToHeal = null;
-	    	for (Unit u: senseNearbyUnits(unit.location().mapLocation(), unit.attackRange(), myTeam)) {
+	    	for (Unit u: senseNearbyUnits(locationOf(unit), unit.attackRange(), myTeam)) {
 	    		long damage = u.maxHealth() - u.health();
 	    		if (damage > mostDamage && gc.canHeal(unit.id(), u.id())) {
 	    			mostDamage = damage;
@@ -1826,10 +1928,8 @@ public class Player {
 	    		}
 	    	}
 	    	if (unitToHeal != null) {
-		    	gc.heal(unit.id(), unitToHeal.id());
-				units.updateUnit(unitToHeal.id());
-				unit = units.updateUnit(unit.id());
-				//debug(2, "Healing " + unitToHeal.unitType() + " @ " + unitToHeal.location().mapLocation());
+		    	actions.heal(unit.id(), unitToHeal.id());
+				//debug(2, "Healing " + unitToHeal.unitType() + " @ " + locationOf(unitToHeal));
 	    	}
     	}
     	
@@ -0,0 +1,101 @@
+import java.util.Arrays;
+
+/*
+ * A reusable breadth first search over the tiles of a map
+ * Tiles are plain int indices (see MapCache.tile) so running a search allocates nothing
+ * - The open list is a preallocated ring of tile indices
+ * - A tile is marked as seen by stamping it with the current epoch so starting a new search is O(1)
+ *
+ * Each tile can only be queued once per search so the ring never needs more room than the map has tiles
+ */
+public class RippleEngine {
+	private MapCache map;
+	private int[] queue; //Ring buffer of tiles waiting to be processed
+	private int[] seen; //Indexed by tile - the epoch of the search that last queued it
+	private int epoch; //Current search number
+	private int head; //Position in the queue of the next tile to process
+	private int size; //Number of tiles waiting in the queue
+
+	public RippleEngine(MapCache mc) {
+		map = mc;
+		queue = new int[mc.tiles()];
+		seen = new int[mc.tiles()];
+		epoch = 0;
+		head = 0;
+		size = 0;
+	}
+
+	/*
+	 * Start a new search - all tiles become unseen and the queue is emptied
+	 */
+	public void clear() {
+		head = 0;
+		size = 0;
+		epoch++;
+		if (epoch == Integer.MAX_VALUE) { //Wrapped - the old stamps could now look current
+			Arrays.fill(seen, 0);
+			epoch = 1;
+		}
+	}
+
+	/*
+	 * Queue a tile if it is passable and hasn't been seen in this search
+	 * Returns true if the tile was added
+	 */
+	public boolean add(int tile) {
+		if (seen[tile] == epoch || !map.passable(tile))
+			return false;
+
+		seen[tile] = epoch;
+		int tail = head + size;
+		if (tail >= queue.length)
+			tail -= queue.length;
+		queue[tail] = tile;
+		size++;
+		return true;
+	}
+
+	/*
+	 * Queue all the tiles in the disk around cx,cy that are on the map
+	 */
+	public void addDisk(int cx, int cy, MapCache.Disk disk) {
+		for (int i=0; i<disk.size; i++) {
+			int x = cx + disk.dx[i], y = cy + disk.dy[i];
+			if (map.onMap(x, y))
+				add(map.tile(x, y));
+		}
+	}
+
+	public boolean seen(int tile) {
+		return seen[tile] == epoch;
+	}
+
+	/*
+	 * The number of tiles waiting to be processed
+	 */
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * Look at the i'th waiting tile without removing it
+	 */
+	public int peek(int i) {
+		int p = head + i;
+		if (p >= queue.length)
+			p -= queue.length;
+		return queue[p];
+	}
+
+	/*
+	 * Remove and return the next tile to process
+	 */
+	public int poll() {
+		int tile = queue[head];
+		head++;
+		if (head == queue.length)
+			head = 0;
+		size--;
+		return tile;
+	}
+}
@@ -0,0 +1,91 @@
+import bc.*;
+
+/*
+ * The asteroid strikes on Mars and the flight times to Mars are fixed for the whole game
+ * so we read them from the engine once at the start and keep them in plain arrays indexed by round
+ *
+ * We also work out when it is worth launching - flight times change each round so a rocket launched later can arrive sooner
+ * A launch is only worth waiting for if it happens no later than the last round we are prepared to launch in
+ */
+public class Schedule {
+	public static final int ROUNDS = 1000; //The game never goes beyond this
+
+	private boolean[]	hasAsteroid = new boolean[ROUNDS+1]; //Indexed by round
+	private int[]		asteroidAt = new int[ROUNDS+1]; //Indexed by round - packed location (see Loc) of the strike
+	private int[]		asteroidKarbonite = new int[ROUNDS+1]; //Indexed by round
+	private int[]		duration = new int[ROUNDS+2]; //Indexed by round - flight time of a rocket launched that round
+	private int[]		bestLaunch = new int[ROUNDS+2]; //Indexed by round - the launch round from then on that arrives first
+
+	public Schedule(GameController gc, long lastLaunch) {
+		AsteroidPattern asteroids = gc.asteroidPattern();
+		for (int round=1; round<=ROUNDS; round++) {
+			if (asteroids.hasAsteroid(round)) {
+				AsteroidStrike strike = asteroids.asteroid(round);
+				MapLocation where = strike.getLocation();
+				hasAsteroid[round] = true;
+				asteroidAt[round] = Loc.of(where);
+				asteroidKarbonite[round] = (int)strike.getKarbonite();
+				where.delete();
+				strike.delete();
+			}
+		}
+		asteroids.delete();
+
+		OrbitPattern orbit = gc.orbitPattern();
+		for (int round=1; round<=ROUNDS+1; round++)
+			duration[round] = (int)orbit.duration(round);
+		orbit.delete();
+
+		/*
+		 * Work back from the last launch - the best launch from a round is either that round or the best from the next one
+		 * Ties go to the earlier round. From the last launch on there is no waiting so each round is its own best.
+		 */
+		int last = (int)Math.min(lastLaunch, ROUNDS);
+		for (int round=ROUNDS+1; round>=last; round--)
+			bestLaunch[round] = round;
+		for (int round=last-1; round>=1; round--) {
+			int later = bestLaunch[round+1];
+			bestLaunch[round] = (arrival(round) <= arrival(later))?round:later;
+		}
+	}
+
+	public boolean hasAsteroid(long round) {
+		return round >= 1 && round <= ROUNDS && hasAsteroid[(int)round];
+	}
+
+	/*
+	 * Where the asteroid lands on Mars in the given round (packed - see Loc)
+	 */
+	public int asteroidAt(long round) {
+		return asteroidAt[(int)round];
+	}
+
+	public int asteroidKarbonite(long round) {
+		return asteroidKarbonite[(int)round];
+	}
+
+	public int duration(long round) {
+		return duration[(int)round];
+	}
+
+	/*
+	 * The round a rocket launched in the given round reaches Mars
+	 */
+	public int arrival(long round) {
+		return (int)round + duration[(int)round];
+	}
+
+	/*
+	 * The round from this one on (up to the last launch) that gets a rocket to Mars soonest
+	 */
+	public int bestLaunch(long round) {
+		return bestLaunch[(int)Math.min(round, ROUNDS+1)];
+	}
+
+	/*
+	 * Returns true if no later launch gets us there sooner
+	 */
+	public boolean launchNow(long round) {
+		return bestLaunch(round) <= round;
+	}
+}
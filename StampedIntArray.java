@@ -0,0 +1,46 @@
+import java.util.Arrays;
+
+/*
+ * An int array that can be reset to all zeros in O(1)
+ * Each cell remembers the generation it was last written in - a cell from an older generation reads as 0
+ */
+public class StampedIntArray {
+	private int[] values;
+	private int[] stamps;
+	private int generation;
+	
+	public StampedIntArray(int size) {
+		values = new int[size];
+		stamps = new int[size];
+		generation = 1;
+	}
+	
+	/*
+	 * Start a new generation - every cell now reads as 0
+	 */
+	public void reset() {
+		generation++;
+		if (generation == Integer.MAX_VALUE) { //Wrapped - clear the old stamps so they can't look current
+			Arrays.fill(stamps, 0);
+			generation = 1;
+		}
+	}
+	
+	public int get(int i) {
+		return (stamps[i] == generation)?values[i]:0;
+	}
+	
+	public void set(int i, int v) {
+		values[i] = v;
+		stamps[i] = generation;
+	}
+	
+	public void add(int i, int v) {
+		if (stamps[i] == generation)
+			values[i] += v;
+		else {
+			values[i] = v;
+			stamps[i] = generation;
+		}
+	}
+}
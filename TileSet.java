@@ -0,0 +1,191 @@
+import java.util.Arrays;
+
+/*
+ * A set of map tiles stored as a bitset - one bit per tile index (see MapCache.tile)
+ * Set operations work on 64 tiles at a time so whole map layers can be combined cheaply, e.g.
+ * "passable and not visible" is copy(passable) then andNot(visible)
+ */
+public class TileSet {
+	private long[] words;
+	private int tiles; //Number of tiles on the map
+	private int h; //Map height - the distance between horizontally adjacent tiles
+	private long[] scratch; //Working space for expand
+	private long[] shifted;
+	private long[] notTop; //All tiles except those with y == 0
+	private long[] notBottom; //All tiles except those with y == h-1
+
+	public TileSet(int width, int height) {
+		h = height;
+		tiles = width*height;
+		words = new long[(tiles+63) >>> 6];
+	}
+
+	public boolean get(int tile) {
+		return (words[tile >>> 6] & (1L << tile)) != 0;
+	}
+
+	public void set(int tile) {
+		words[tile >>> 6] |= (1L << tile);
+	}
+
+	public void set(int tile, boolean value) {
+		if (value)
+			set(tile);
+		else
+			clear(tile);
+	}
+
+	public void clear(int tile) {
+		words[tile >>> 6] &= ~(1L << tile);
+	}
+
+	public void clear() {
+		Arrays.fill(words, 0);
+	}
+
+	public void copy(TileSet other) {
+		System.arraycopy(other.words, 0, words, 0, words.length);
+	}
+
+	public void and(TileSet other) {
+		for (int i=0; i<words.length; i++)
+			words[i] &= other.words[i];
+	}
+
+	public void or(TileSet other) {
+		for (int i=0; i<words.length; i++)
+			words[i] |= other.words[i];
+	}
+
+	public void andNot(TileSet other) {
+		for (int i=0; i<words.length; i++)
+			words[i] &= ~other.words[i];
+	}
+
+	public boolean isEmpty() {
+		for (long w: words)
+			if (w != 0)
+				return false;
+		return true;
+	}
+
+	public int cardinality() {
+		int count = 0;
+		for (long w: words)
+			count += Long.bitCount(w);
+		return count;
+	}
+
+	/*
+	 * The number of tiles in the set from tile from to tile to (inclusive)
+	 */
+	public int count(int from, int to) {
+		int first = from >>> 6, last = to >>> 6;
+		long lowMask = -1L << from, highMask = -1L >>> (63 - (to & 63));
+		if (first == last)
+			return Long.bitCount(words[first] & lowMask & highMask);
+		
+		int count = Long.bitCount(words[first] & lowMask) + Long.bitCount(words[last] & highMask);
+		for (int i=first+1; i<last; i++)
+			count += Long.bitCount(words[i]);
+		return count;
+	}
+
+	/*
+	 * Returns the first tile in the set at or after from, or -1 if there are none
+	 * Loop over the set with for (int t=s.nextSetBit(0); t>=0; t=s.nextSetBit(t+1))
+	 */
+	public int nextSetBit(int from) {
+		if (from >= tiles)
+			return -1;
+		int i = from >>> 6;
+		long w = words[i] & (-1L << from);
+		while (w == 0) {
+			if (++i == words.length)
+				return -1;
+			w = words[i];
+		}
+		return (i << 6) + Long.numberOfTrailingZeros(w);
+	}
+
+	/*
+	 * Replace this set with all the tiles in source plus their 8 neighbours
+	 * Tiles in a column are adjacent in the bitset so vertical neighbours are a shift of 1 (masked at the top and bottom rows)
+	 * and horizontal neighbours are a shift of h
+	 */
+	public void expand(TileSet source) {
+		if (scratch == null) {
+			scratch = new long[words.length];
+			shifted = new long[words.length];
+			notTop = new long[words.length];
+			notBottom = new long[words.length];
+			Arrays.fill(notTop, -1L);
+			Arrays.fill(notBottom, -1L);
+			for (int t=0; t<tiles; t+=h) {
+				notTop[t >>> 6] &= ~(1L << t);
+				notBottom[(t+h-1) >>> 6] &= ~(1L << (t+h-1));
+			}
+			if ((tiles & 63) != 0) { //Nothing can be shifted into the unused bits at the end
+				notTop[words.length-1] &= (1L << tiles) - 1;
+				notBottom[words.length-1] &= (1L << tiles) - 1;
+			}
+		}
+
+		//First the column - add the tile above and below each source tile
+		System.arraycopy(source.words, 0, scratch, 0, words.length);
+		shift(source.words, shifted, 1);
+		and(shifted, notTop); //Moved from the end of the previous column
+		or(scratch, shifted);
+		shift(source.words, shifted, -1);
+		and(shifted, notBottom); //Moved from the start of the next column
+		or(scratch, shifted);
+
+		//Now spread the columns left and right
+		System.arraycopy(scratch, 0, words, 0, words.length);
+		shift(scratch, shifted, h);
+		or(words, shifted);
+		shift(scratch, shifted, -h);
+		or(words, shifted);
+
+		//Drop anything shifted past the last tile
+		if ((tiles & 63) != 0)
+			words[words.length-1] &= (1L << tiles) - 1;
+	}
+
+	private static void and(long[] dst, long[] src) {
+		for (int i=0; i<dst.length; i++)
+			dst[i] &= src[i];
+	}
+
+	private static void or(long[] dst, long[] src) {
+		for (int i=0; i<dst.length; i++)
+			dst[i] |= src[i];
+	}
+
+	/*
+	 * dst = src moved n bits towards the higher tile indices (lower if n is negative)
+	 */
+	private static void shift(long[] src, long[] dst, int n) {
+		int len = src.length;
+		if (n >= 0) {
+			int ws = n >>> 6, bs = n & 63;
+			for (int i=len-1; i>=0; i--) {
+				int j = i - ws;
+				long w = (j >= 0)?(src[j] << bs):0;
+				if (bs != 0 && j-1 >= 0)
+					w |= src[j-1] >>> (64 - bs);
+				dst[i] = w;
+			}
+		} else {
+			n = -n;
+			int ws = n >>> 6, bs = n & 63;
+			for (int i=0; i<len; i++) {
+				int j = i + ws;
+				long w = (j < len)?(src[j] >>> bs):0;
+				if (bs != 0 && j+1 < len)
+					w |= src[j+1] << (64 - bs);
+				dst[i] = w;
+			}
+		}
+	}
+}
@@ -1,24 +1,82 @@
 import bc.*;
 
+import java.util.Arrays;
+
 /*
  * We are given all the units we are aware of
  * Our units can change position during the turn - enemy units can't but they can be destroyed by damage we inflict
+ *
+ * Each round we copy the details we use most into plain arrays (the snapshot) so decisions can be made without
+ * calling into the game engine. Each unit has a slot and all its details are held at that index.
+ * When a unit is refreshed during the turn it is given a new slot - old slots are simply no longer referenced by a tile.
+ * The latest slot for each unit id is kept in an index so questions about a unit (type, location, alive) are answered
+ * locally and the engine is only asked when a unit's state may have changed (see updateUnit)
+ *
+ * Occupancy is also kept as one TileSet per team and unit type so we can count or list the units of a given team and type
+ * near a location by only looking at tiles that hold one (see countWithin and within)
+ *
+ * Every Unit handle we get from the engine goes into the round's Handles arena so it is deleted at the end of the round
  */
 public class UnitCache {
+	private static final UnitType[]	TYPES = UnitType.values();
+	private static final Team[]		TEAMS = Team.values();
+	private static final int		DEAD = -2; //Held in the id index for units we have seen die this round
+	
 	private GameController	gc;
+	private Handles			handles; //Where the engine's handles go to be freed at the end of the round
 	private long			cacheRound; //The round the cache was last updated
-	private VecUnit			known; //List of all units from game controller
-	private Unit[][]		units; //Array (by location x and y) of known units
+	private VecUnit			known; //List of all units from game controller - freed with the round's handles
+	private StampedIntArray	slotAt; //Indexed by tile (MapCache.tile) - slot+1 of the unit there, 0 if empty - reset each round
+	private IntMap			slotOf = new IntMap(1024); //Unit id to its latest slot (or DEAD) - cleared each round
+	private TileSet			occupied; //Tiles containing a unit - indexed as MapCache.tile
+	private TileSet[]		teamOccupied; //Indexed by team - tiles containing a unit of that team
+	private TileSet[][]		typeOccupied; //Indexed by team then unit type - tiles containing a unit of that team and type
+	private int				width;
+	private int				height;
 	
-	public UnitCache(GameController g) {
+	/*
+	 * The snapshot - indexed by slot
+	 */
+	private int				slots; //Number of slots in use this round
+	private int				roundSlots; //Number of slots filled from gc.units() at the start of the round
+	private Unit[]			unit = new Unit[0];
+	private boolean[]		stale = new boolean[0]; //The Unit handle is out of date and is refetched when asked for
+	private int[]			id = new int[0];
+	private short[]			type = new short[0]; //UnitType ordinal
+	private short[]			team = new short[0]; //Team ordinal
+	private short[]			x = new short[0]; //-1 if not on the map
+	private short[]			y = new short[0];
+	private int[]			health = new int[0];
+	private int[]			maxHealth = new int[0];
+	private int[]			movementHeat = new int[0]; //Heats and cooldowns are 0 for structures
+	private int[]			attackHeat = new int[0];
+	private int[]			abilityHeat = new int[0];
+	private int[]			movementCooldown = new int[0];
+	private int[]			attackCooldown = new int[0];
+	private int[]			damage = new int[0]; //Robots only - negative for healers
+	private int[]			defense = new int[0]; //Knights only
+	private int[]			harvestAmount = new int[0]; //Workers only
+	private int[]			buildHealth = new int[0]; //Workers only
+	private int[]			repairHealth = new int[0]; //Workers only
+	private boolean[]		acted = new boolean[0]; //Workers only
+	
+	public UnitCache(GameController g, Handles h, int w, int ht) {
 		gc = g;
+		handles = h;
 		known = null;
 		
-		int width = (int)gc.startingMap(gc.planet()).getWidth();
-		int height = (int)gc.startingMap(gc.planet()).getHeight();
-		
-		units = new Unit[width][height];
+		width = w;
+		height = ht;
 		
+		slotAt = new StampedIntArray(width*height);
+		occupied = new TileSet(width, height);
+		teamOccupied = new TileSet[TEAMS.length];
+		typeOccupied = new TileSet[TEAMS.length][TYPES.length];
+		for (int t=0; t<TEAMS.length; t++) {
+			teamOccupied[t] = new TileSet(width, height);
+			for (int u=0; u<TYPES.length; u++)
+				typeOccupied[t][u] = new TileSet(width, height);
+		}
 		updateCache();
 	}
 	
@@ -26,21 +84,24 @@ public class UnitCache {
 		if (cacheRound == gc.round()) //Already done
 			return;
 
-		for (int x = 0; x < units.length; x++)
-			for (int y = 0; y < units[0].length; y++)
-				units[x][y] = null;
+		slotAt.reset();
+		occupied.clear(); //One bit per tile so this is cheap
+		for (int t=0; t<TEAMS.length; t++) {
+			teamOccupied[t].clear();
+			for (int u=0; u<TYPES.length; u++)
+				typeOccupied[t][u].clear();
+		}
+		Arrays.fill(unit, 0, slots, null); //Don't hold on to last round's handles
+		slots = 0;
+		slotOf.clear();
 
-		if (known != null)
-			known.delete();
-		
-		known = gc.units();
+		known = handles.add(gc.units());
 		for (int i=0; i<known.size(); i++) {
-			Unit u = known.get(i);
-			if (u.location().isOnMap()) {
-				MapLocation m = u.location().mapLocation();
-				units[m.getX()][m.getY()] = u;
-			}
+			int slot = record(handles.add(known.get(i)));
+			if (x[slot] >= 0)
+				setSlot(x[slot], y[slot], slot);
 		}
+		roundSlots = slots;
 		
 		cacheRound = gc.round();
 	}
@@ -50,33 +111,477 @@ public class UnitCache {
 	}
 	
 	public Unit unitAt(MapLocation here) {
-		return units[here.getX()][here.getY()];
+		return unitAt(here.getX(), here.getY());
+	}
+	
+	public Unit unitAt(int x, int y) {
+		int slot = slotAt.get(x*height + y) - 1;
+		return (slot < 0)?null:unit(slot);
+	}
+	
+	/*
+	 * Returns the snapshot slot of the unit on the tile or -1 if it is empty
+	 */
+	public int slot(int tile) {
+		return slotAt.get(tile) - 1;
+	}
+	
+	/*
+	 * The number of units in the snapshot taken at the start of the round
+	 * Slots 0 to slots()-1 are all the units we know about (including those in garrisons)
+	 */
+	public int slots() {
+		return roundSlots;
+	}
+	
+	/*
+	 * Returns the latest slot of the unit with the given id or a negative number if we don't know it (or it is dead)
+	 */
+	public int slotOf(int id) {
+		return slotOf.get(id);
+	}
+	
+	/*
+	 * Returns true if the unit was in this round's snapshot (or has been refreshed since) and we haven't seen it die
+	 */
+	public boolean alive(int id) {
+		return slotOf.get(id) >= 0;
+	}
+	
+	/*
+	 * The type of a unit from the snapshot - only asks the engine about units we don't know yet
+	 */
+	public UnitType typeOf(int id) {
+		int slot = slotOf.get(id);
+		if (slot >= 0)
+			return TYPES[type[slot]];
+		return handles.add(gc.unit(id)).unitType();
+	}
+	
+	/*
+	 * The engine's view of a unit - only fetched again if an action has changed it (see the write-through updates)
+	 * Returns null if the unit is dead
+	 */
+	public Unit unit(int slot) {
+		if (stale[slot] || slotOf.get(id[slot]) != slot) //Changed or refreshed since this slot was filled
+			return unitOf(id[slot]);
+		return unit[slot];
+	}
+	
+	public Unit unitOf(int id) {
+		int slot = slotOf.get(id);
+		if (slot == DEAD)
+			return null;
+		if (slot < 0 || stale[slot])
+			return updateUnit(id);
+		return unit[slot];
+	}
+	
+	/*
+	 * Snapshot accessors - these never call the game engine
+	 */	
+	public int id(int slot) {
+		return id[slot];
+	}
+	
+	public UnitType type(int slot) {
+		return TYPES[type[slot]];
+	}
+	
+	public Team team(int slot) {
+		return TEAMS[team[slot]];
+	}
+	
+	public boolean onMap(int slot) {
+		return x[slot] >= 0;
+	}
+	
+	public int x(int slot) {
+		return x[slot];
+	}
+	
+	public int y(int slot) {
+		return y[slot];
+	}
+	
+	public int health(int slot) {
+		return health[slot];
+	}
+	
+	public int maxHealth(int slot) {
+		return maxHealth[slot];
+	}
+	
+	public int movementHeat(int slot) {
+		return movementHeat[slot];
+	}
+	
+	public int attackHeat(int slot) {
+		return attackHeat[slot];
+	}
+	
+	public int abilityHeat(int slot) {
+		return abilityHeat[slot];
+	}
+	
+	public int damage(int slot) {
+		return damage[slot];
+	}
+	
+	public int defense(int slot) {
+		return defense[slot];
+	}
+	
+	public int harvestAmount(int slot) {
+		return harvestAmount[slot];
+	}
+	
+	public int buildHealth(int slot) {
+		return buildHealth[slot];
+	}
+	
+	public int repairHealth(int slot) {
+		return repairHealth[slot];
+	}
+	
+	public boolean hasActed(int slot) {
+		return acted[slot];
+	}
+	
+	/*
+	 * Returns true if the tile contains a unit of the given team and type (null matches any type)
+	 * Workers are not matched if ignoreWorkers is set
+	 */
+	public boolean isMatch(int tile, Team t, UnitType match, boolean ignoreWorkers) {
+		int slot = slotAt.get(tile) - 1;
+		return (slot >= 0 && TEAMS[team[slot]] == t &&
+				(match == null || match.ordinal() == type[slot]) &&
+				(type[slot] != UnitType.Worker.ordinal() || !ignoreWorkers));
+	}
+	
+	/*
+	 * Returns the type of the unit on the tile if it belongs to the given team, otherwise null
+	 */
+	public UnitType typeAt(int tile, Team t) {
+		int slot = slotAt.get(tile) - 1;
+		if (slot < 0 || TEAMS[team[slot]] != t)
+			return null;
+		return TYPES[type[slot]];
+	}
+	
+	public boolean occupied(int tile) {
+		return occupied.get(tile);
+	}
+	
+	/*
+	 * The tiles that contain a unit - shared so must not be modified
+	 */
+	public TileSet occupiedTiles() {
+		return occupied;
+	}
+	
+	/*
+	 * The tiles that contain a unit of the given team and type - shared so must not be modified
+	 */
+	public TileSet tilesOf(Team t, UnitType type) {
+		return typeOccupied[t.ordinal()][type.ordinal()];
+	}
+	
+	/*
+	 * The number of units of the given team and type (null for any) within radius (distance squared) of cx,cy
+	 */
+	public int countWithin(int cx, int cy, long radius, Team team, UnitType type) {
+		int count = 0;
+		if (radius < 0)
+			return 0;
+		for (int t=0; t<TEAMS.length; t++) {
+			if (team != null && team != TEAMS[t])
+				continue;
+			TileSet layer = (type == null)?teamOccupied[t]:typeOccupied[t][type.ordinal()];
+			int dxMax = isqrt(radius);
+			for (int dx=-dxMax; dx<=dxMax; dx++) {
+				int x = cx + dx;
+				if (x < 0 || x >= width)
+					continue;
+				int dy = isqrt(radius - dx*dx);
+				int y0 = Math.max(0, cy - dy), y1 = Math.min(height-1, cy + dy);
+				count += layer.count(x*height + y0, x*height + y1);
+			}
+		}
+		return count;
+	}
+	
+	/*
+	 * Fill result with the slots of the units of the given team and type (null for any) within radius (distance squared) of cx,cy
+	 * Returns how many were found - stopping if result is full
+	 */
+	public int within(int cx, int cy, long radius, Team team, UnitType type, int[] result) {
+		int found = 0;
+		if (radius < 0)
+			return 0;
+		for (int t=0; t<TEAMS.length; t++) {
+			if (team != null && team != TEAMS[t])
+				continue;
+			TileSet layer = (type == null)?teamOccupied[t]:typeOccupied[t][type.ordinal()];
+			int dxMax = isqrt(radius);
+			for (int dx=-dxMax; dx<=dxMax; dx++) {
+				int x = cx + dx;
+				if (x < 0 || x >= width)
+					continue;
+				int dy = isqrt(radius - dx*dx);
+				int y0 = Math.max(0, cy - dy), end = x*height + Math.min(height-1, cy + dy);
+				for (int tile = layer.nextSetBit(x*height + y0); tile >= 0 && tile <= end; tile = layer.nextSetBit(tile+1)) {
+					if (found == result.length)
+						return found;
+					result[found++] = slotAt.get(tile) - 1;
+				}
+			}
+		}
+		return found;
+	}
+	
+	/*
+	 * The largest n with n*n <= v (0 if v is negative)
+	 */
+	private static int isqrt(long v) {
+		if (v < 0)
+			return 0;
+		int n = (int)Math.sqrt(v);
+		while ((long)n*n > v)
+			n--;
+		while ((long)(n+1)*(n+1) <= v)
+			n++;
+		return n;
 	}
 	
 	public void removeUnit(MapLocation here) {
-		units[here.getX()][here.getY()] = null;
+		set(here.getX(), here.getY(), null);
 	}
 	
 	public Unit updateUnit(MapLocation here) {
 		if (gc.hasUnitAtLocation(here))
-			units[here.getX()][here.getY()] = gc.senseUnitAtLocation(here);
+			set(here.getX(), here.getY(), handles.add(gc.senseUnitAtLocation(here)));
 		else
-			units[here.getX()][here.getY()] = null;
+			set(here.getX(), here.getY(), null);
 		
-		return units[here.getX()][here.getY()];
+		return unitAt(here);
 	}
 	
+	/*
+	 * Fetch the latest state of a unit from the engine
+	 * Returns null if it no longer exists (e.g. killed by our damage) and removes it from the cache
+	 */
 	public Unit updateUnit(int id) {
-		try {
-			Unit u = gc.unit(id);
-			if (u != null && u.location().isOnMap()) {
-				MapLocation here = u.location().mapLocation();
-				units[here.getX()][here.getY()] = u;
-			}
+		if (slotOf.get(id) == DEAD) //Already seen it die
+			return null;
 		
-			return u;
-		} catch (Exception e) { //Unit no longer exists - possibly killed by damage
+		if (!gc.canSenseUnit(id)) {
+			kill(id);
 			return null;
 		}
+		
+		int slot = record(handles.add(gc.unit(id)));
+		if (x[slot] >= 0)
+			setSlot(x[slot], y[slot], slot);
+		return unit[slot];
+	}
+	
+	/*
+	 * Write-through updates
+	 * Actions call these with the effect they are known to have so the snapshot stays correct without asking the engine.
+	 * If the change is to something the Unit handle holds the handle is marked stale and refetched only if it is asked for.
+	 * Location changes don't mark it stale - location is always read from the snapshot (see Player.locationOf)
+	 * Heats and the worker acted flag are only kept up to date in the snapshot - read them from there
+	 */
+	public void moved(int id, int nx, int ny) {
+		int slot = slotOf.get(id);
+		if (slot < 0)
+			return;
+		relocated(id, nx, ny);
+		movementHeat[slot] += movementCooldown[slot];
+	}
+	
+	/*
+	 * The unit is now at nx,ny without having moved there (e.g. blinked)
+	 */
+	public void relocated(int id, int nx, int ny) {
+		int slot = slotOf.get(id);
+		if (slot < 0)
+			return;
+		if (x[slot] >= 0 && slotAt.get(x[slot]*height + y[slot]) == slot+1)
+			setSlot(x[slot], y[slot], -1);
+		x[slot] = (short)nx;
+		y[slot] = (short)ny;
+		setSlot(nx, ny, slot);
+	}
+	
+	/*
+	 * The unit has been loaded into a structure
+	 */
+	public void garrisoned(int id) {
+		int slot = slotOf.get(id);
+		if (slot < 0)
+			return;
+		if (x[slot] >= 0 && slotAt.get(x[slot]*height + y[slot]) == slot+1)
+			setSlot(x[slot], y[slot], -1);
+		x[slot] = -1;
+		y[slot] = -1;
+	}
+	
+	public void attacked(int id) {
+		int slot = slotOf.get(id);
+		if (slot >= 0)
+			attackHeat[slot] += attackCooldown[slot];
+	}
+	
+	public void acted(int id) {
+		int slot = slotOf.get(id);
+		if (slot >= 0)
+			acted[slot] = true;
+	}
+	
+	/*
+	 * Add delta (negative for damage) to the health of a unit - capped at its max health
+	 * A unit with no health left is dead
+	 */
+	public void changeHealth(int id, int delta) {
+		int slot = slotOf.get(id);
+		if (slot < 0)
+			return;
+		health[slot] = Math.min(maxHealth[slot], health[slot] + delta);
+		if (health[slot] <= 0)
+			kill(id);
+		else
+			stale[slot] = true;
+	}
+	
+	/*
+	 * An overcharge resets all the heats of its target
+	 */
+	public void overcharged(int id) {
+		int slot = slotOf.get(id);
+		if (slot < 0)
+			return;
+		movementHeat[slot] = 0;
+		attackHeat[slot] = 0;
+		abilityHeat[slot] = 0;
+	}
+	
+	/*
+	 * Something we don't track has changed (e.g. a garrison) - fetch the unit again if its handle is asked for
+	 */
+	public void changed(int id) {
+		int slot = slotOf.get(id);
+		if (slot >= 0)
+			stale[slot] = true;
+	}
+	
+	public void destroyed(int id) {
+		kill(id);
+	}
+	
+	/*
+	 * The unit has gone - clear its tile if it still holds it
+	 */
+	private void kill(int id) {
+		int slot = slotOf.get(id);
+		if (slot >= 0 && x[slot] >= 0 && slotAt.get(x[slot]*height + y[slot]) == slot+1)
+			setSlot(x[slot], y[slot], -1);
+		slotOf.put(id, DEAD);
+	}
+	
+	private void set(int x, int y, Unit u) {
+		setSlot(x, y, (u == null)?-1:record(u));
+	}
+	
+	private void setSlot(int x, int y, int slot) {
+		int tile = x*height + y;
+		int old = slotAt.get(tile) - 1;
+		if (old >= 0) {
+			teamOccupied[team[old]].clear(tile);
+			typeOccupied[team[old]][type[old]].clear(tile);
+		}
+		if (slot >= 0) {
+			teamOccupied[team[slot]].set(tile);
+			typeOccupied[team[slot]][type[slot]].set(tile);
+		}
+		slotAt.set(tile, slot+1);
+		occupied.set(tile, slot >= 0);
+	}
+	
+	/*
+	 * Copy the details of a unit into the next free slot
+	 */
+	private int record(Unit u) {
+		if (slots == id.length)
+			grow(Math.max(256, slots*2));
+		
+		int slot = slots++;
+		unit[slot] = u;
+		stale[slot] = false;
+		id[slot] = u.id();
+		slotOf.put(id[slot], slot);
+		UnitType t = u.unitType();
+		type[slot] = (short)t.ordinal();
+		team[slot] = (short)u.team().ordinal();
+		health[slot] = (int)u.health();
+		maxHealth[slot] = (int)u.maxHealth();
+		
+		//The engine rejects robot only queries on structures so only ask for what this type has
+		boolean robot = (t != UnitType.Factory && t != UnitType.Rocket);
+		movementHeat[slot] = robot?(int)u.movementHeat():0;
+		attackHeat[slot] = robot?(int)u.attackHeat():0;
+		abilityHeat[slot] = robot?(int)u.abilityHeat():0;
+		movementCooldown[slot] = robot?(int)u.movementCooldown():0;
+		attackCooldown[slot] = robot?(int)u.attackCooldown():0;
+		damage[slot] = robot?u.damage():0;
+		defense[slot] = (t == UnitType.Knight)?(int)u.knightDefense():0;
+		if (t == UnitType.Worker) {
+			harvestAmount[slot] = (int)u.workerHarvestAmount();
+			buildHealth[slot] = (int)u.workerBuildHealth();
+			repairHealth[slot] = (int)u.workerRepairHealth();
+			acted[slot] = (u.workerHasActed() > 0);
+		} else {
+			harvestAmount[slot] = 0;
+			buildHealth[slot] = 0;
+			repairHealth[slot] = 0;
+			acted[slot] = false;
+		}
+		
+		Location where = u.location();
+		if (where.isOnMap()) {
+			MapLocation m = where.mapLocation();
+			x[slot] = (short)m.getX();
+			y[slot] = (short)m.getY();
+			handles.free(m);
+		} else {
+			x[slot] = -1;
+			y[slot] = -1;
+		}
+		handles.free(where);
+		return slot;
+	}
+	
+	private void grow(int size) {
+		unit = Arrays.copyOf(unit, size);
+		stale = Arrays.copyOf(stale, size);
+		id = Arrays.copyOf(id, size);
+		type = Arrays.copyOf(type, size);
+		team = Arrays.copyOf(team, size);
+		x = Arrays.copyOf(x, size);
+		y = Arrays.copyOf(y, size);
+		health = Arrays.copyOf(health, size);
+		maxHealth = Arrays.copyOf(maxHealth, size);
+		movementHeat = Arrays.copyOf(movementHeat, size);
+		attackHeat = Arrays.copyOf(attackHeat, size);
+		abilityHeat = Arrays.copyOf(abilityHeat, size);
+		movementCooldown = Arrays.copyOf(movementCooldown, size);
+		attackCooldown = Arrays.copyOf(attackCooldown, size);
+		damage = Arrays.copyOf(damage, size);
+		defense = Arrays.copyOf(defense, size);
+		harvestAmount = Arrays.copyOf(harvestAmount, size);
+		buildHealth = Arrays.copyOf(buildHealth, size);
+		repairHealth = Arrays.copyOf(repairHealth, size);
+		acted = Arrays.copyOf(acted, size);
 	}
 }
@@ -1,7 +1,6 @@
 import java.util.Arrays;
 import java.util.LinkedList;
 
-import bc.MapLocation;
 import bc.Unit;
 import bc.UnitType;
 
@@ -11,14 +10,14 @@ import bc.UnitType;
 public class ZoneState {
     public int[] enemyUnits; //Counts of how many units enemy has indexed by unit type (ordinal)
     public int[] myLandUnits; //Counts of how many units we have indexed by unit type (ordinal)
-    public LinkedList<MapLocation> unitsToBuild; //List of current blueprints that need building
+    public IntList unitsToBuild; //List of current blueprints that need building - packed locations (see Loc)
     public LinkedList<Unit> rockets; //List of rockets (to Load into if on Earth, or unload from on Mars)
     public UnitType strategy;
     
     public ZoneState() {
 		myLandUnits = new int[UnitType.values().length];
 		enemyUnits = new int[UnitType.values().length];
-		unitsToBuild = new LinkedList<MapLocation>();
+		unitsToBuild = new IntList();
 		rockets = new LinkedList<Unit>();
 		strategy = UnitType.Ranger;
     }